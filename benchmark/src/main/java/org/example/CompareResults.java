@@ -0,0 +1,127 @@
+package org.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Compares two JMH CSV result files ({@code -rf csv}) and flags regressions.
+ * <pre>
+ *   java -cp target/benchmarks.jar org.example.CompareResults baseline.csv results.csv [thresholdPercent]
+ * </pre>
+ * Rows are matched on benchmark, mode, threads and parameters. A score is a regression when
+ * it is worse than the baseline by more than the threshold (default 10%) and by more than
+ * the two error margins together, so noise alone does not fail the comparison. Lower is
+ * better for times and for the GC profiler's {@code gc.alloc.rate.norm} (bytes per
+ * operation); higher is better for throughput. Exits with status 1 when anything regressed.
+ */
+public final class CompareResults {
+
+    private static final class Row {
+        final String key;
+        final String mode;
+        final double score;
+        final double error;
+        final String unit;
+
+        Row(String key, String mode, double score, double error, String unit) {
+            this.key = key;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        boolean higherIsBetter() {
+            return mode.equals("thrpt") && !unit.endsWith("/op");
+        }
+    }
+
+    private CompareResults() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: CompareResults <baseline.csv> <results.csv> [thresholdPercent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+        Map<String, Row> baseline = read(args[0]);
+        Map<String, Row> current = read(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "benchmark", "baseline", "current", "change");
+        for (Row now : current.values()) {
+            Row before = baseline.get(now.key);
+            if (before == null) {
+                System.out.printf("%-90s %14s %14.3f %9s  new%n", now.key, "-", now.score, "");
+                continue;
+            }
+            double change = before.score == 0 ? 0 : (now.score - before.score) / before.score;
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean beyondNoise = Math.abs(now.score - before.score) > before.error + now.error;
+            String verdict = "";
+            if (worse > threshold && beyondNoise) {
+                verdict = "  REGRESSION";
+                regressions++;
+            } else if (-worse > threshold && beyondNoise) {
+                verdict = "  improved";
+            }
+            System.out.printf("%-90s %14.3f %14.3f %+8.1f%%%s%n", now.key, before.score, now.score, change * 100, verdict);
+        }
+        for (String key : baseline.keySet()) {
+            if (!current.containsKey(key)) System.out.printf("%-90s  missing from current results%n", key);
+        }
+        System.out.println(regressions == 0 ? "No regressions." : regressions + " regression(s).");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /** Primary scores and allocation per operation, keyed by benchmark, mode, threads and params. */
+    private static Map<String, Row> read(String file) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        Map<String, Row> rows = new LinkedHashMap<>();
+        if (lines.isEmpty()) return rows;
+        List<String> header = split(lines.get(0));
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) continue;
+            List<String> f = split(line);
+            String benchmark = f.get(0);
+            int secondary = benchmark.indexOf(':');
+            if (secondary >= 0 && !benchmark.endsWith("gc.alloc.rate.norm")) continue;
+
+            StringBuilder key = new StringBuilder(benchmark).append(' ').append(f.get(1)).append(" t=").append(f.get(2));
+            for (int i = 7; i < f.size() && i < header.size(); i++) {
+                key.append(' ').append(header.get(i).replace("Param: ", "")).append('=').append(f.get(i));
+            }
+            Row row = new Row(key.toString(), f.get(1), number(f.get(4)), number(f.get(5)), f.get(6));
+            rows.put(row.key, row);
+        }
+        return rows;
+    }
+
+    /** JMH writes numbers with the platform locale, so "1,5" and "1.5" both occur. */
+    private static double number(String s) {
+        if (s.isEmpty() || s.equalsIgnoreCase("NaN")) return 0;
+        return Double.parseDouble(s.indexOf('.') < 0 ? s.replace(',', '.') : s.replace(",", ""));
+    }
+
+    /** Splits one CSV line, honouring double quotes. */
+    private static List<String> split(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') quoted = !quoted;
+            else if (c == ',' && !quoted) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(cur.toString());
+        return out;
+    }
+}
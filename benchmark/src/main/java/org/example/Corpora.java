@@ -0,0 +1,73 @@
+package org.example;
+
+import com.example.indexing.BookAnalyzer;
+import com.example.indexing.SegmentStore;
+import com.example.segment.SegmentFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Synthetic corpora and their indexes, shared by the benchmarks and kept between runs under
+ * {@code BENCH_DIR} (default {@code target/bench}): generating 100k books or indexing them
+ * takes minutes and is not what is being measured.
+ */
+final class Corpora {
+
+    static final SyntheticCorpus CORPUS = new SyntheticCorpus();
+    private static final String INDEX_MARKER = "INDEX_READY";
+    // the indexing service's background merge defaults
+    private static final int MERGE_MIN_SEGMENTS = 10;
+    private static final int MERGE_MAX_SEGMENTS = 10;
+    private static final long MERGE_MAX_BYTES = 128L * 1024 * 1024;
+
+    private Corpora() {}
+
+    static Path root() {
+        String dir = System.getenv("BENCH_DIR");
+        return Paths.get(dir == null || dir.isBlank() ? "target/bench" : dir);
+    }
+
+    /** The datalake of {@code books} synthetic books, generated on first use. */
+    static Path datalake(int books, int wordsPerBook) throws IOException {
+        return CORPUS.generate(root().resolve("datalake-" + books + "-" + wordsPerBook), books, wordsPerBook);
+    }
+
+    /**
+     * The segments directory of the indexed datalake, built on first use the way the
+     * indexing service would: one segment per book, merged as they accumulate. Rebuilt when
+     * the segment format changed since.
+     */
+    static Path index(int books, int wordsPerBook) throws IOException {
+        Path datalake = datalake(books, wordsPerBook);
+        Path dir = root().resolve("segments-" + books + "-" + wordsPerBook);
+        String marker = books + " " + wordsPerBook + " v" + SegmentFormat.VERSION;
+        Path markerFile = dir.resolve(INDEX_MARKER);
+        if (Files.exists(markerFile) && Files.readString(markerFile).equals(marker)) return dir;
+
+        SyntheticCorpus.deleteRecursively(dir);
+        SegmentStore store = new SegmentStore(dir, true);
+        store.open();
+        List<Path> raw = SyntheticCorpus.rawFiles(datalake);
+        for (int from = 0; from < raw.size(); from += 1000) {
+            raw.subList(from, Math.min(raw.size(), from + 1000)).parallelStream().forEach(p -> {
+                try {
+                    int bookId = SyntheticCorpus.bookId(p);
+                    store.write(BookAnalyzer.analyze(bookId, BookAnalyzer.readRaw(p), store.nextVersion(), true));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            store.merge(MERGE_MIN_SEGMENTS, MERGE_MAX_SEGMENTS, MERGE_MAX_BYTES);
+        }
+        while (store.merge(MERGE_MIN_SEGMENTS, MERGE_MAX_SEGMENTS, MERGE_MAX_BYTES) > 0) {
+            // fold what is left, as the background merge eventually does
+        }
+        Files.writeString(markerFile, marker);
+        return dir;
+    }
+}
@@ -0,0 +1,112 @@
+package org.example;
+
+import com.example.indexing.BookAnalyzer;
+import com.example.indexing.RebuildJob;
+import com.example.indexing.SegmentDoc;
+import com.example.indexing.SegmentStore;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The indexing service's write path on a synthetic datalake: analysing one book, indexing
+ * one book into a live segment store (what {@code POST /index/update/{id}} does) and a
+ * full {@link RebuildJob} over every book into an empty store.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class IndexingBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int books;
+
+    @Param({"2000"})
+    public int wordsPerBook;
+
+    private List<Path> rawFiles;
+    private Path storeDir;
+    private SegmentStore store;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        rawFiles = SyntheticCorpus.rawFiles(Corpora.datalake(books, wordsPerBook));
+        storeDir = Files.createTempDirectory("bench-segments");
+        store = new SegmentStore(storeDir, true);
+        store.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticCorpus.deleteRecursively(storeDir);
+    }
+
+    private Path nextBook() {
+        return rawFiles.get(next++ % rawFiles.size());
+    }
+
+    /** Read and analyse one book, without writing it. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SegmentDoc analyzeBook() throws IOException {
+        Path raw = nextBook();
+        return BookAnalyzer.analyze(SyntheticCorpus.bookId(raw), BookAnalyzer.readRaw(raw), 1, true);
+    }
+
+    /** Read, analyse and commit one book; re-indexed books tombstone their previous copy. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void indexBook() throws IOException {
+        Path raw = nextBook();
+        store.write(BookAnalyzer.analyze(SyntheticCorpus.bookId(raw), BookAnalyzer.readRaw(raw), store.nextVersion(), true));
+    }
+
+    /** A fresh, empty store for each rebuild. */
+    @State(Scope.Thread)
+    public static class EmptyStore {
+        Path dir;
+        SegmentStore store;
+
+        @Setup(Level.Iteration)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("bench-rebuild");
+            store = new SegmentStore(dir, true);
+            store.open();
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            SyntheticCorpus.deleteRecursively(dir);
+        }
+    }
+
+    /** Full rebuild with the service's defaults: one worker per core, 256 MB in flight. */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public long rebuild(EmptyStore target) {
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            RebuildJob job = new RebuildJob("bench", () -> new HashSet<>(rawFiles),
+                    (bookId, raw) -> target.store.write(BookAnalyzer.analyze(bookId, BookAnalyzer.readRaw(raw),
+                            target.store.nextVersion(), true)),
+                    pool, 256L * 1024 * 1024);
+            job.run();
+            return job.done();
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
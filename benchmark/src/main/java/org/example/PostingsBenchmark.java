@@ -0,0 +1,148 @@
+package org.example;
+
+import com.example.indexing.BookAnalyzer;
+import com.example.indexing.SegmentDoc;
+import com.example.indexing.SegmentWriter;
+import com.example.search.Segment;
+import com.example.segment.SegmentFormat;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * One segment over every book of a synthetic datalake, in segment version 1 (a varint doc
+ * gap, freq and position gaps per posting) and version 2 (bit-packed blocks of 128 postings
+ * with skip data, front-coded term dictionary). The setup prints the bytes per posting and
+ * per term of each; the benchmarks read the postings the way queries do:
+ * <ul>
+ *   <li>{@code decode}: every posting list walked in full, doc ordinals and freqs only, with
+ *       the {@code postings} counter giving postings per second;</li>
+ *   <li>{@code intersect}: rarer terms' lists leapfrogged through the most common term's
+ *       with {@code advance}, which version 2 answers from the skip table.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PostingsBenchmark {
+
+    @Param({"1000", "10000"})
+    public int books;
+
+    @Param({"2000"})
+    public int wordsPerBook;
+
+    @Param({"1", "2"})
+    public short version;
+
+    private Segment segment;
+    private int[] rare;
+    private int common;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Path withPositions = segment(true);
+        Path withoutPositions = segment(false);
+        segment = Segment.open(withPositions);
+
+        long postings = 0;
+        int mostFrequent = 0;
+        List<Integer> rarer = new ArrayList<>();
+        for (int t = 0; t < segment.termCount(); t++) {
+            int df = segment.docFreq(t);
+            postings += df;
+            if (df > segment.docFreq(mostFrequent)) mostFrequent = t;
+            // terms in about 0.1 to 1% of the books
+            if (df * 1000 >= books && df * 100 <= books && rarer.size() < 100) rarer.add(t);
+        }
+        common = mostFrequent;
+        rare = rarer.stream().mapToInt(Integer::intValue).toArray();
+
+        long[] sections = sections(withPositions);
+        System.out.printf("%nSegment version %d: %d postings of %d terms%n", version, postings, segment.termCount());
+        System.out.printf("  postings with positions: %.2f bytes/posting%n", (double) (sections[2] - sections[1]) / postings);
+        long[] bare = sections(withoutPositions);
+        System.out.printf("  postings without positions: %.2f bytes/posting%n", (double) (bare[2] - bare[1]) / postings);
+        System.out.printf("  term dictionary: %.2f bytes/term%n", (double) (sections[1] - sections[0]) / segment.termCount());
+    }
+
+    /** The segment of every book, written once per format under {@code BENCH_DIR}. */
+    private Path segment(boolean positions) throws IOException {
+        Path file = Corpora.root().resolve("postings-" + books + "-" + wordsPerBook + "-v" + version
+                + (positions ? "" : "-nopos") + ".seg");
+        if (Files.exists(file)) return file;
+        List<SegmentDoc> docs = SyntheticCorpus.rawFiles(Corpora.datalake(books, wordsPerBook)).parallelStream()
+                .map(p -> {
+                    try {
+                        return BookAnalyzer.analyze(SyntheticCorpus.bookId(p), BookAnalyzer.readRaw(p), 1, positions);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(Collectors.toList());
+        SegmentWriter.write(file, docs, positions, version);
+        return file;
+    }
+
+    /** Offsets of the term index, the postings and the metadata, from the segment header. */
+    private static long[] sections(Path file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+        try (FileChannel ch = FileChannel.open(file)) {
+            ch.read(header, 0);
+        }
+        return new long[]{header.getLong(24), header.getLong(40), header.getLong(48)};
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counts {
+        public long postings;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long decode(Counts counts) {
+        long sum = 0;
+        for (int t = 0; t < segment.termCount(); t++) {
+            Segment.PostingsCursor c = segment.postings(t);
+            for (int d = c.next(); d != Integer.MAX_VALUE; d = c.next()) {
+                sum += d + c.freq();
+                counts.postings++;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int intersect() {
+        int matches = 0;
+        for (int t : rare) {
+            Segment.PostingsCursor a = segment.postings(t);
+            Segment.PostingsCursor b = segment.postings(common);
+            int d = a.next();
+            while (d != Integer.MAX_VALUE) {
+                int e = b.advance(d);
+                if (e == d) {
+                    matches++;
+                    d = a.next();
+                } else {
+                    d = a.advance(e);
+                }
+            }
+        }
+        return matches;
+    }
+}
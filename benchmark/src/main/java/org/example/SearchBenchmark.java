@@ -0,0 +1,122 @@
+package org.example;
+
+import com.example.search.QueryCache;
+import com.example.search.SegmentIndex;
+import com.example.search.Searcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The search service's {@code /search} path ({@link Searcher}, from query parsing to the
+ * rendered JSON page) over the index of a synthetic datalake, for several query shapes:
+ * <ul>
+ *   <li>{@code warm}: steady state, query cache off;</li>
+ *   <li>{@code cached}: the same query answered from the query cache;</li>
+ *   <li>{@code cold}: the first query after the index is opened, before any segment page
+ *       was touched by a query (the OS page cache may still hold the files);</li>
+ *   <li>{@code throughput}: queries per second with 8 threads sharing one index.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int books;
+
+    @Param({"2000"})
+    public int wordsPerBook;
+
+    @Param({"common", "rare", "or", "and", "phrase", "prefix", "filter"})
+    public String shape;
+
+    private Path indexDir;
+    private Map<String, String> params;
+    private Searcher uncached;
+    private Searcher cached;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        indexDir = Corpora.index(books, wordsPerBook);
+        params = query(shape);
+        SegmentIndex index = new SegmentIndex(indexDir);
+        index.refresh();
+        uncached = new Searcher(index, new QueryCache(0));
+        cached = new Searcher(index, new QueryCache(64L * 1024 * 1024));
+        cached.search(params, 0, 10);
+    }
+
+    /** Query parameters for each shape, built from words of known frequency rank. */
+    static Map<String, String> query(String shape) {
+        SyntheticCorpus c = Corpora.CORPUS;
+        Map<String, String> p = new HashMap<>();
+        switch (shape) {
+            case "common": p.put("q", c.word(0)); break;
+            case "rare": p.put("q", c.word(20_000)); break;
+            case "or": p.put("q", c.word(5) + " " + c.word(50) + " " + c.word(500)); break;
+            case "and":
+                p.put("q", c.word(5) + " " + c.word(50) + " " + c.word(500));
+                p.put("op", "and");
+                break;
+            case "phrase": p.put("q", "\"" + SyntheticCorpus.PHRASES[0] + "\""); break;
+            case "prefix": p.put("q", c.word(10).substring(0, 2) + "*"); break;
+            case "filter":
+                p.put("q", c.word(5));
+                p.put("language", "french");
+                break;
+            default: throw new IllegalArgumentException("Unknown query shape " + shape);
+        }
+        return p;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String warm() {
+        return uncached.search(params, 0, 10);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String cached() {
+        return cached.search(params, 0, 10);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(8)
+    public String throughput() {
+        return uncached.search(params, 0, 10);
+    }
+
+    /** An index opened just before the measured query. */
+    @State(Scope.Thread)
+    public static class FreshIndex {
+        Searcher searcher;
+
+        @Setup(Level.Iteration)
+        public void setup(SearchBenchmark bench) {
+            SegmentIndex index = new SegmentIndex(bench.indexDir);
+            index.refresh();
+            searcher = new Searcher(index, new QueryCache(0));
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public String cold(FreshIndex fresh) {
+        return fresh.searcher.search(params, 0, 10);
+    }
+}
@@ -0,0 +1,128 @@
+package org.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates a datalake of Gutenberg-like books in the layout the ingestion service writes
+ * ({@code datalake/<yyyyMMdd>/<HH>/<bookId>/raw.txt}). Words are drawn from a fixed
+ * vocabulary with a Zipf distribution, so term statistics look like natural text: a few
+ * very frequent words and a long tail. Headers carry title, author, language and release
+ * date for the metadata filters, and some books quote a handful of fixed phrases for
+ * phrase queries. The same seed always produces the same corpus, and a corpus already on
+ * disk with the same parameters is reused.
+ *
+ * <pre>
+ *   java -cp target/benchmarks.jar org.example.SyntheticCorpus &lt;dir&gt; &lt;books&gt; [wordsPerBook]
+ * </pre>
+ */
+public final class SyntheticCorpus {
+
+    public static final int VOCABULARY = 50_000;
+    public static final int AUTHORS = 500;
+    public static final String[] LANGUAGES = {"English", "English", "English", "French", "German", "Spanish"};
+    public static final String[] PHRASES = {"pride and prejudice", "great expectations", "crime and punishment", "wuthering heights"};
+    private static final String MARKER = "CORPUS";
+    private static final long SEED = 42;
+
+    private final String[] vocabulary;
+    private final double[] cumulative;
+
+    public SyntheticCorpus() {
+        Random random = new Random(SEED);
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < VOCABULARY) {
+            int len = 4 + random.nextInt(7);
+            char[] w = new char[len];
+            for (int i = 0; i < len; i++) w[i] = (char) ('a' + random.nextInt(26));
+            words.add(new String(w));
+        }
+        vocabulary = words.toArray(new String[0]);
+        cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int r = 0; r < VOCABULARY; r++) cumulative[r] = sum += 1.0 / (r + 1);
+        for (int r = 0; r < VOCABULARY; r++) cumulative[r] /= sum;
+    }
+
+    /** The word of the given frequency rank, 0 being the most frequent. */
+    public String word(int rank) {
+        return vocabulary[rank];
+    }
+
+    /** Writes the corpus under {@code root} unless the same one is already there. */
+    public Path generate(Path root, int books, int wordsPerBook) throws IOException {
+        String signature = books + " " + wordsPerBook + " " + SEED;
+        Path marker = root.resolve(MARKER);
+        if (Files.exists(marker) && Files.readString(marker).trim().equals(signature)) return root;
+
+        deleteRecursively(root);
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder(wordsPerBook * 8);
+        for (int bookId = 1; bookId <= books; bookId++) {
+            Path dir = root.resolve("20250101").resolve(String.format("%02d", bookId % 24)).resolve(String.valueOf(bookId));
+            Files.createDirectories(dir);
+            text.setLength(0);
+            text.append("The Project Gutenberg eBook of Book ").append(bookId).append('\n')
+                    .append("Title: ").append(capitalize(draw(random))).append(' ').append(capitalize(draw(random))).append('\n')
+                    .append("Author: Author ").append(random.nextInt(AUTHORS)).append('\n')
+                    .append("Release date: January 1, ").append(1800 + random.nextInt(220)).append('\n')
+                    .append("Language: ").append(LANGUAGES[random.nextInt(LANGUAGES.length)]).append('\n')
+                    .append("*** START OF THE PROJECT GUTENBERG EBOOK ***\n");
+            for (int i = 0; i < wordsPerBook; i++) {
+                if (i % 500 == 250 && random.nextInt(4) == 0) text.append(PHRASES[random.nextInt(PHRASES.length)]);
+                else text.append(draw(random));
+                text.append(i % 12 == 11 ? ".\n" : " ");
+            }
+            try (BufferedWriter w = Files.newBufferedWriter(dir.resolve("raw.txt"), StandardCharsets.UTF_8)) {
+                w.append(text);
+            }
+        }
+        Files.writeString(marker, signature);
+        return root;
+    }
+
+    /** Every raw file of a generated corpus, ordered by book id. */
+    public static List<Path> rawFiles(Path root) throws IOException {
+        try (Stream<Path> s = Files.walk(root)) {
+            return s.filter(p -> p.getFileName().toString().equals("raw.txt"))
+                    .sorted(Comparator.comparingInt(SyntheticCorpus::bookId))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    public static int bookId(Path rawFile) {
+        return Integer.parseInt(rawFile.getParent().getFileName().toString());
+    }
+
+    static void deleteRecursively(Path root) throws IOException {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> s = Files.walk(root)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(p);
+        }
+    }
+
+    private String draw(Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return vocabulary[Math.min(rank < 0 ? -rank - 1 : rank, VOCABULARY - 1)];
+    }
+
+    private static String capitalize(String w) {
+        return Character.toUpperCase(w.charAt(0)) + w.substring(1);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: SyntheticCorpus <dir> <books> [wordsPerBook]");
+            System.exit(2);
+        }
+        int words = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        long start = System.nanoTime();
+        new SyntheticCorpus().generate(Paths.get(args[0]), Integer.parseInt(args[1]), words);
+        System.out.printf("Corpus ready in %s (%.1fs)%n", args[0], (System.nanoTime() - start) / 1e9);
+    }
+}
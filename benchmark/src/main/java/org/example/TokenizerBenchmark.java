@@ -0,0 +1,71 @@
+package org.example;
+
+import com.example.indexing.TermCounter;
+import com.example.indexing.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the regex split path the indexing service used to run against the
+ * streaming {@link Tokenizer}, both on its own and feeding the {@link TermCounter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    private String text;
+    private ByteBuffer utf8;
+    private Tokenizer tokenizer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        try (Stream<Path> paths = Files.walk(Path.of("datalake"))) {
+            Optional<Path> raw = paths.filter(p -> p.getFileName().toString().endsWith(".txt")).findFirst();
+            text = raw.isPresent() ? Files.readString(raw.get()) : "Sample benchmark text ".repeat(4000);
+        }
+        utf8 = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        tokenizer = new Tokenizer();
+    }
+
+    @Benchmark
+    public int splitRegex() {
+        return text.toLowerCase().split("[^a-záéíóúüñ]+").length;
+    }
+
+    @Benchmark
+    public Map<String, Long> splitRegexAndCount() {
+        return Arrays.stream(text.toLowerCase().split("[^a-záéíóúüñ]+"))
+                .filter(w -> w.length() > 3)
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+
+    @Benchmark
+    public void tokenizeCharSequence(Blackhole bh) {
+        tokenizer.tokenize(text, (buf, len, pos) -> bh.consume(len));
+    }
+
+    @Benchmark
+    public void tokenizeUtf8(Blackhole bh) {
+        tokenizer.tokenize(utf8.duplicate(), (buf, len, pos) -> bh.consume(len));
+    }
+
+    @Benchmark
+    public int tokenizeUtf8AndCount() {
+        TermCounter counter = new TermCounter(false, 3);
+        tokenizer.tokenize(utf8.duplicate(), counter);
+        return counter.size();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.search;
+
+import com.example.indexing.Tokenizer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the indexer's {@link Tokenizer} and the search service's {@link Query#words} over the
+ * same text: a query only matches what was indexed if both split it the same way, on top of
+ * the {@code TermFolding} table they share. The test lives here because this module is the
+ * one that sees both services.
+ */
+class FoldingAgreementTest {
+
+    private static final List<String> CORPUS = List.of(
+            "Søren Kierkegaard wrote Enten–Eller in København",
+            "Die Straße, der Fluß und das Mädchen",
+            "Æsop's Fables; Œuvres complètes de Molière",
+            "Łódź, Kraków and Gdańsk",
+            "Достоевский — Преступление и наказание",
+            "Ἰλιάς and Ὀδύσσεια, by Ὅμηρος",
+            "naïve café façade, São Paulo, Ñandú, Þórr, Ðiðrik",
+            "Don't stop: e-mail, x86_64, ½ and ¾, 3rd of May 1851",
+            "日本語のテキスト mixed with English words",
+            "emoji 😀 inside a sentence, and a" + "b".repeat(80) + " very long word");
+
+    private static List<String> indexed(String text) {
+        List<String> words = new ArrayList<>();
+        new Tokenizer().tokenize(text, (buf, len, pos) -> words.add(new String(buf, 0, len)));
+        return words;
+    }
+
+    private static List<String> indexedUtf8(String text) {
+        List<String> words = new ArrayList<>();
+        new Tokenizer().tokenize(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)),
+                (buf, len, pos) -> words.add(new String(buf, 0, len)));
+        return words;
+    }
+
+    @Test
+    void queryWordsMatchIndexedWords() {
+        for (String text : CORPUS) {
+            assertEquals(indexed(text), Query.words(text), text);
+            // books are tokenized straight from their UTF-8 bytes
+            assertEquals(indexedUtf8(text), Query.words(text), text);
+        }
+    }
+
+    @Test
+    void everyCharacterFoldsTheSameWay() {
+        StringBuilder text = new StringBuilder();
+        for (char c = 1; c < 0x800; c++) text.append("ab").append(c).append("cd ");
+        assertEquals(indexed(text.toString()), Query.words(text.toString()));
+        assertEquals(indexedUtf8(text.toString()), Query.words(text.toString()));
+    }
+}
@@ -0,0 +1,89 @@
+package org.example;
+
+import com.example.indexing.BookAnalyzer;
+import com.example.indexing.SegmentStore;
+import com.example.search.QueryCache;
+import com.example.search.SegmentIndex;
+import com.example.search.Searcher;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Books indexed by the indexing service's {@link SegmentStore} and queried through the
+ * search service's {@link Searcher}: terms, prefixes, phrases and folded spellings.
+ */
+class SearchMatchingTest {
+
+    @TempDir
+    static Path dir;
+
+    private static Searcher searcher;
+
+    private static final Map<Integer, String> BOOKS = Map.of(
+            1, "It is a truth universally acknowledged: pride and prejudice go together.",
+            2, "Prejudice against pride is still prejudice, the preacher said.",
+            3, "Søren walked through København with his umbrella.",
+            4, "The great whale, the white whale, the whale of Nantucket.");
+
+    @BeforeAll
+    static void index() throws IOException {
+        SegmentStore store = new SegmentStore(dir, true);
+        store.open();
+        for (Map.Entry<Integer, String> b : BOOKS.entrySet()) {
+            String raw = "Title: Book " + b.getKey() + "\nAuthor: Someone\n*** START OF THE BOOK ***\n" + b.getValue();
+            store.write(BookAnalyzer.analyze(b.getKey(), raw.getBytes(StandardCharsets.UTF_8), store.nextVersion(), true));
+        }
+        SegmentIndex index = new SegmentIndex(dir);
+        index.refresh();
+        searcher = new Searcher(index, new QueryCache(0));
+    }
+
+    private static List<Integer> hits(String q) {
+        JsonObject r = JsonParser.parseString(searcher.search(Map.of("q", q), 0, 10)).getAsJsonObject();
+        List<Integer> ids = new ArrayList<>();
+        for (JsonElement h : r.getAsJsonArray("results")) ids.add(h.getAsJsonObject().get("book_id").getAsInt());
+        Collections.sort(ids);
+        return ids;
+    }
+
+    @Test
+    void terms() {
+        assertEquals(List.of(1, 2), hits("prejudice"));
+        assertEquals(List.of(4), hits("WHALE"));
+        assertEquals(List.of(), hits("moby"));
+    }
+
+    @Test
+    void prefixes() {
+        assertEquals(List.of(1, 2), hits("prej*"));
+        assertEquals(List.of(2), hits("preach*"));
+        assertEquals(List.of(1, 2), hits("pre*"));
+    }
+
+    @Test
+    void phrasesFollowPositions() {
+        // "and" is not indexed but keeps its place between the two words
+        assertEquals(List.of(1), hits("\"pride and prejudice\""));
+        assertEquals(List.of(2), hits("\"prejudice against pride\""));
+        assertEquals(List.of(4), hits("\"white whale\""));
+        assertEquals(List.of(), hits("\"whale white\""));
+    }
+
+    @Test
+    void foldedSpellingsMatch() {
+        assertEquals(List.of(3), hits("Søren"));
+        assertEquals(List.of(3), hits("soren"));
+        assertEquals(List.of(3), hits("KØBENHAVN"));
+    }
+}
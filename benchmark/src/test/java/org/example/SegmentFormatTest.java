@@ -0,0 +1,124 @@
+package org.example;
+
+import com.example.indexing.BookAnalyzer;
+import com.example.indexing.SegmentDoc;
+import com.example.indexing.SegmentWriter;
+import com.example.search.Segment;
+import com.example.segment.SegmentFormat;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The search service's {@link Segment} over one synthetic corpus written by the indexing
+ * service in segment version 1 and version 2: both must answer every lookup, posting walk,
+ * {@code advance} and prefix range the same way.
+ */
+class SegmentFormatTest {
+
+    @TempDir
+    static Path dir;
+
+    private static Segment v1;
+    private static Segment v2;
+    private static long postings;
+
+    @BeforeAll
+    static void write() throws IOException {
+        Path datalake = new SyntheticCorpus().generate(dir.resolve("datalake"), 300, 1500);
+        List<SegmentDoc> docs = new ArrayList<>();
+        for (Path p : SyntheticCorpus.rawFiles(datalake)) {
+            SegmentDoc doc = BookAnalyzer.analyze(SyntheticCorpus.bookId(p), BookAnalyzer.readRaw(p), 1, true);
+            docs.add(doc);
+            postings += doc.termCount();
+        }
+        SegmentWriter.write(dir.resolve("v1.seg"), docs, true, SegmentFormat.VERSION_1);
+        SegmentWriter.write(dir.resolve("v2.seg"), docs, true, SegmentFormat.VERSION);
+        v1 = Segment.open(dir.resolve("v1.seg"));
+        v2 = Segment.open(dir.resolve("v2.seg"));
+    }
+
+    @Test
+    void sameDictionary() {
+        assertEquals(v1.termCount(), v2.termCount());
+        assertEquals(v1.docCount(), v2.docCount());
+        for (int t = 0; t < v1.termCount(); t++) {
+            String term = v1.term(t);
+            assertEquals(term, v2.term(t));
+            byte[] b = term.getBytes(StandardCharsets.UTF_8);
+            assertEquals(t, v2.findTerm(b), term);
+            byte[] absent = (term + "\u0001").getBytes(StandardCharsets.UTF_8);
+            assertEquals(v1.findTerm(absent), v2.findTerm(absent), term);
+            assertEquals(v1.docFreq(t), v2.docFreq(t), term);
+        }
+    }
+
+    @Test
+    void samePostingsAndPositions() {
+        long walked = 0;
+        for (int t = 0; t < v1.termCount(); t++) {
+            Segment.PostingsCursor a = v1.postings(t);
+            Segment.PostingsCursor b = v2.postings(t);
+            while (true) {
+                int x = a.next();
+                assertEquals(x, b.next(), v1.term(t));
+                if (x == Integer.MAX_VALUE) break;
+                walked++;
+                assertEquals(a.freq(), b.freq());
+                assertArrayEquals(a.positions(), b.positions(), v1.term(t));
+            }
+        }
+        assertEquals(postings, walked);
+    }
+
+    @Test
+    void sameAdvance() {
+        Random rnd = new Random(3);
+        for (int t = 0; t < v1.termCount(); t += 1 + rnd.nextInt(5)) {
+            Segment.PostingsCursor a = v1.postings(t);
+            Segment.PostingsCursor b = v2.postings(t);
+            int target = 0;
+            while (true) {
+                // short hops stay in a block, long ones skip several
+                target += rnd.nextInt(rnd.nextBoolean() ? 3 : 300);
+                int x = a.advance(target);
+                assertEquals(x, b.advance(target), v1.term(t) + " -> " + target);
+                if (x == Integer.MAX_VALUE) break;
+                assertTrue(x >= target);
+                assertEquals(a.freq(), b.freq());
+                if (rnd.nextInt(3) == 0) assertArrayEquals(a.positions(), b.positions());
+                if (rnd.nextBoolean()) {
+                    x = a.next();
+                    assertEquals(x, b.next());
+                    if (x == Integer.MAX_VALUE) break;
+                    target = x;
+                }
+            }
+        }
+    }
+
+    @Test
+    void samePrefixRangesAndSubstrings() {
+        Random rnd = new Random(5);
+        for (int i = 0; i < 2000; i++) {
+            String term = v1.term(rnd.nextInt(v1.termCount()));
+            String prefix = term.substring(0, 1 + rnd.nextInt(term.length()));
+            byte[] b = prefix.getBytes(StandardCharsets.UTF_8);
+            int[] range = v1.prefixRange(b);
+            assertArrayEquals(range, v2.prefixRange(b), prefix);
+            for (int t = range[0]; t < range[1]; t++) assertTrue(v2.term(t).startsWith(prefix));
+            if (range[1] < v2.termCount()) assertFalse(v2.term(range[1]).startsWith(prefix));
+        }
+        for (String part : new String[]{"a", "pr", "the", "zz", "q"}) {
+            byte[] b = part.getBytes(StandardCharsets.UTF_8);
+            assertArrayEquals(v1.termsContaining(b), v2.termsContaining(b), part);
+        }
+    }
+}
@@ -1,37 +1,74 @@
 package com.control;
 
+import com.example.metrics.Metrics;
 import io.javalin.Javalin;
-import kong.unirest.Unirest;
-import kong.unirest.HttpResponse;
-import kong.unirest.JsonNode;
+import io.javalin.http.Context;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class App {
 
     private static final Gson gson = new Gson();
-    private static final String DATAMART_INDEX_DIR = "datamart/indexes";
-
-    public static void main(String[] args) {
-
-        Unirest.config().connectTimeout(5000).socketTimeout(20000);
+    private static final int MAX_BATCH = 100_000;
+    private static final int INGEST_WORKERS = Integer.parseInt(env("PIPELINE_INGEST_WORKERS", "8"));
+    private static final int INDEX_WORKERS = Integer.parseInt(env("PIPELINE_INDEX_WORKERS", "2"));
+    // one thread per concurrent batch job; its ingest and index workers run on batchWorkers,
+    // which has room for every running job so none waits for another's workers to free up
+    private static final int BATCH_MAX_JOBS = Integer.parseInt(env("PIPELINE_BATCH_MAX_JOBS", "2"));
+    private static final ExecutorService batchRunner = new ThreadPoolExecutor(
+            BATCH_MAX_JOBS, BATCH_MAX_JOBS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Integer.parseInt(env("PIPELINE_BATCH_QUEUE", "4"))), r -> {
+                Thread t = new Thread(r, "batch-runner");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final ExecutorService batchWorkers = Executors.newFixedThreadPool(
+            BATCH_MAX_JOBS * (INGEST_WORKERS + INDEX_WORKERS), r -> {
+                Thread t = new Thread(r, "batch-worker");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final long BATCH_JOB_TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.parseLong(env("PIPELINE_BATCH_JOB_TTL_S", "3600")));
+    private static final int BATCH_JOBS_KEPT = Integer.parseInt(env("PIPELINE_BATCH_JOBS_KEPT", "100"));
+    private static final Map<String, BatchRun> batchJobs = new ConcurrentHashMap<>();
+    private static final AtomicInteger jobSequence = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+
+        Pipeline pipeline = new Pipeline(
+                Paths.get(env("PIPELINE_QUEUE_DIR", "queue")),
+                Boolean.parseBoolean(env("PIPELINE_QUEUE_FSYNC", "true")),
+                INGEST_WORKERS,
+                INDEX_WORKERS,
+                Integer.parseInt(env("PIPELINE_INDEX_BATCH", "32")),
+                Integer.parseInt(env("PIPELINE_MAX_ATTEMPTS", "3")));
+        pipeline.start();
 
         Javalin app = Javalin.create(config -> {
             config.http.defaultContentType = "application/json";
-        }).start(7004);
+        }).start(Integer.parseInt(env("CONTROL_PORT", "7004")));
+        Metrics.install(app, "control_", Long.parseLong(env("SLOW_REQUEST_MS", "1000")));
 
         app.get("/status", ctx -> {
             JsonObject status = new JsonObject();
             status.addProperty("service", "control-module");
             status.addProperty("status", "running");
+            status.add("stages", gson.toJsonTree(pipeline.status()));
+            status.addProperty("batches_running", batchJobs.values().stream().filter(j -> !j.finished()).count());
+            status.add("downstreams", gson.toJsonTree(Downstream.status()));
             ctx.result(gson.toJson(status));
         });
 
+        app.post("/pipeline/batch", App::handleBatch);
+        app.get("/pipeline/batch/{job_id}", App::handleBatchStatus);
+
         app.post("/pipeline/{book_id}", ctx -> {
             String bookIdStr = ctx.pathParam("book_id");
 
@@ -43,60 +80,132 @@ public class App {
                 return;
             }
 
-            try {
-                if (isAlreadyIndexed(bookId)) {
-                    ctx.result(gson.toJson(Map.of(
-                            "book_id", bookId,
-                            "pipeline", "skipped",
-                            "reason", "Book already indexed"
-                    )));
-                    return;
-                }
-
-                // Ingestion
-                HttpResponse<JsonNode> ingestResp = Unirest
-                        .post("http://localhost:7001/ingest/" + bookId)
-                        .asJson();
-
-                if (ingestResp.getStatus() != 200) {
-                    ctx.status(500).result(gson.toJson(Map.of("error", "Ingestion failed")));
-                    return;
-                }
-
-                String statusIngest = ingestResp.getBody().getObject().getString("status");
-                if (!"downloaded".equals(statusIngest)) {
-                    ctx.status(404).result(gson.toJson(Map.of("error", "Book not found in Project Gutenberg")));
-                    return;
-                }
-
-                // Indexing
-                HttpResponse<JsonNode> indexResp = Unirest
-                        .post("http://localhost:7002/index/update/" + bookId)
-                        .asJson();
-
-                if (indexResp.getStatus() != 200) {
-                    ctx.status(500).result(gson.toJson(Map.of("error", "Indexing failed")));
-                    return;
-                }
-
-
-                ctx.result(gson.toJson(Map.of(
+            if ("async".equals(ctx.queryParam("mode"))) {
+                pipeline.submit(bookId);
+                ctx.status(202).result(gson.toJson(Map.of(
                         "book_id", bookId,
-                        "pipeline", "completed",
-                        "step_ingestion", "success",
-                        "step_indexing", "success"
+                        "pipeline", "queued"
                 )));
-
-            } catch (Exception e) {
-                e.printStackTrace();
-                ctx.status(500).result(gson.toJson(Map.of("error",
-                        "Pipeline execution failed: " + e.getMessage())));
+                return;
             }
+
+            // the request thread is released while the downstream calls are in flight
+            Trace trace = new Trace(Metrics.traceId(ctx));
+            ctx.future(() -> Downstream.isIndexed(bookId, trace)
+                    .thenCompose(indexed -> {
+                        if (indexed) {
+                            ctx.result(gson.toJson(Map.of(
+                                    "book_id", bookId,
+                                    "pipeline", "skipped",
+                                    "reason", "Book already indexed",
+                                    "trace_id", trace.id,
+                                    "timings_ms", trace.millis()
+                            )));
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return Downstream.ingest(bookId, trace).thenCompose(ingested -> {
+                            if (ingested == Downstream.Outcome.NOT_FOUND) {
+                                ctx.status(404).result(gson.toJson(Map.of("error", "Book not found in Project Gutenberg")));
+                                return CompletableFuture.completedFuture(null);
+                            }
+                            if (ingested != Downstream.Outcome.OK) {
+                                ctx.status(500).result(gson.toJson(Map.of("error", "Ingestion failed")));
+                                return CompletableFuture.completedFuture(null);
+                            }
+                            return Downstream.index(bookId, trace).thenAccept(outcome -> {
+                                if (outcome != Downstream.Outcome.OK) {
+                                    ctx.status(500).result(gson.toJson(Map.of("error", "Indexing failed")));
+                                    return;
+                                }
+                                ctx.result(gson.toJson(Map.of(
+                                        "book_id", bookId,
+                                        "pipeline", "completed",
+                                        "step_ingestion", "success",
+                                        "step_indexing", "success",
+                                        "trace_id", trace.id,
+                                        "timings_ms", trace.millis()
+                                )));
+                            });
+                        });
+                    })
+                    .exceptionally(e -> {
+                        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        String message = cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+                        ctx.status(cause instanceof ServiceClient.Unavailable ? 503 : 500).result(gson.toJson(Map.of("error",
+                                "Pipeline execution failed: " + message)));
+                        return null;
+                    })
+                    .whenComplete((x, e) -> ctx.header("Server-Timing", trace.serverTiming())));
         });
     }
 
-    private static boolean isAlreadyIndexed(int bookId) {
-        Path indexPath = Paths.get(DATAMART_INDEX_DIR, bookId + ".json");
-        return Files.exists(indexPath);
+    /**
+     * Runs ingestion and indexing for {@code {"ids": [...]}} or {@code {"from": a, "to": b}}
+     * as overlapping stages in a background job, and answers with the job id; the job's
+     * progress reports per-stage and end-to-end throughput.
+     */
+    private static void handleBatch(Context ctx) {
+        List<Integer> ids = new ArrayList<>();
+        try {
+            JsonObject body = JsonParser.parseString(ctx.body()).getAsJsonObject();
+            if (body.has("ids")) {
+                for (JsonElement e : body.getAsJsonArray("ids")) ids.add(e.getAsInt());
+            } else if (body.has("from") && body.has("to")) {
+                int from = body.get("from").getAsInt();
+                int to = body.get("to").getAsInt();
+                if (from > to || (long) to - from >= MAX_BATCH) throw new IllegalArgumentException();
+                for (int id = from; id <= to; id++) ids.add(id);
+            }
+        } catch (RuntimeException e) {
+            ids.clear();
+        }
+        if (ids.isEmpty() || ids.size() > MAX_BATCH) {
+            ctx.status(400).result(gson.toJson(Map.of("error",
+                    "Expected {\"ids\": [...]} or {\"from\": n, \"to\": m} with 1 to " + MAX_BATCH + " books")));
+            return;
+        }
+
+        String jobId = "batch-" + jobSequence.incrementAndGet();
+        BatchRun job = new BatchRun(jobId, new ArrayList<>(new LinkedHashSet<>(ids)),
+                () -> Downstream.indexedBooks().join(), batchWorkers,
+                INGEST_WORKERS, INDEX_WORKERS, Integer.parseInt(env("PIPELINE_BUFFER", "64")));
+        evictFinishedJobs();
+        try {
+            batchRunner.execute(job);
+        } catch (RejectedExecutionException e) {
+            ctx.status(503).header("Retry-After", "30")
+                    .result(gson.toJson(Map.of("error", "Too many batches running or queued")));
+            return;
+        }
+        batchJobs.put(jobId, job);
+        ctx.status(202).result(gson.toJson(Map.of("job_id", jobId, "status", "started",
+                "progress", "/pipeline/batch/" + jobId)));
+    }
+
+    /** Forgets finished jobs older than the TTL, and the oldest beyond the newest {@code BATCH_JOBS_KEPT}. */
+    private static void evictFinishedJobs() {
+        long now = System.nanoTime();
+        List<BatchRun> finished = new ArrayList<>();
+        for (BatchRun job : batchJobs.values()) {
+            if (!job.finished()) continue;
+            if (now - job.finishedNanos() > BATCH_JOB_TTL_NANOS) batchJobs.remove(job.id());
+            else finished.add(job);
+        }
+        finished.sort(Comparator.comparingLong(BatchRun::finishedNanos));
+        for (int i = 0; i < finished.size() - BATCH_JOBS_KEPT; i++) batchJobs.remove(finished.get(i).id());
+    }
+
+    private static void handleBatchStatus(Context ctx) {
+        BatchRun job = batchJobs.get(ctx.pathParam("job_id"));
+        if (job == null) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Unknown batch job")));
+            return;
+        }
+        ctx.result(gson.toJson(job.progress()));
+    }
+
+    private static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? def : v;
     }
 }
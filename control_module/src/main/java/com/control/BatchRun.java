@@ -0,0 +1,283 @@
+package com.control;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * One {@code POST /pipeline/batch} job. Downloads and indexing overlap: ingest workers
+ * hand each downloaded book to the index workers through a bounded buffer, so the network
+ * stage works on book N+1 while the CPU stage indexes book N, and a slow indexer throttles
+ * downloads instead of letting them pile up.
+ * <p>
+ * The workers run on a pool shared by all jobs, which must have room for the workers of
+ * every job running at once. A book whose call fails is counted as failed; if an index
+ * worker dies altogether, the job stops its other workers and ends as {@code failed}
+ * rather than leaving the downloads blocked on a buffer nobody drains.
+ */
+public class BatchRun implements Runnable {
+
+    private static final int POISON = Integer.MIN_VALUE;
+    private static final int MAX_ERRORS = 20;
+    private static final long HANDOFF_WAIT_MS = 200;
+
+    private final String id;
+    private final List<Integer> ids;
+    private final Supplier<Set<Integer>> indexedBooks;
+    private final ExecutorService pool;
+    private final int ingestWorkers;
+    private final int indexWorkers;
+    private final BlockingQueue<Integer> ingested;
+
+    private final StageTimer ingest = new StageTimer();
+    private final StageTimer index = new StageTimer();
+    private final List<Integer> notFound = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> failed = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final List<Future<?>> workers = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile String status = "queued";
+    private volatile boolean aborted;
+    private volatile int skipped = -1;
+    private final String startedAt = Instant.now().toString();
+    private volatile long startNanos;
+    private volatile long endNanos;
+
+    public BatchRun(String id, List<Integer> ids, Supplier<Set<Integer>> indexedBooks, ExecutorService pool,
+                    int ingestWorkers, int indexWorkers, int buffer) {
+        this.id = id;
+        this.ids = ids;
+        this.indexedBooks = indexedBooks;
+        this.pool = pool;
+        this.ingestWorkers = ingestWorkers;
+        this.indexWorkers = indexWorkers;
+        this.ingested = new ArrayBlockingQueue<>(buffer);
+    }
+
+    public String id() { return id; }
+
+    public boolean finished() {
+        return endNanos != 0;
+    }
+
+    /** {@link System#nanoTime()} when the job finished, or 0 while it is queued or running. */
+    public long finishedNanos() {
+        return endNanos;
+    }
+
+    @Override
+    public void run() {
+        startNanos = System.nanoTime();
+        try {
+            status = "listing";
+            Set<Integer> indexed = indexedBooks.get();
+            BlockingQueue<Integer> todo = new LinkedBlockingQueue<>();
+            int skip = 0;
+            for (int id : ids) {
+                if (indexed.contains(id)) skip++;
+                else todo.add(id);
+            }
+            skipped = skip;
+            status = "running";
+
+            CountDownLatch downloadsDone = new CountDownLatch(ingestWorkers);
+            List<Future<?>> indexers = new ArrayList<>();
+            for (int i = 0; i < ingestWorkers; i++) {
+                workers.add(pool.submit(() -> {
+                    try {
+                        download(todo);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        downloadsDone.countDown();
+                    }
+                }));
+            }
+            for (int i = 0; i < indexWorkers; i++) {
+                Future<?> f = pool.submit(() -> {
+                    try {
+                        indexArrivals();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (RuntimeException | Error e) {
+                        abort(e);
+                        throw e;
+                    }
+                });
+                indexers.add(f);
+                workers.add(f);
+            }
+            if (aborted) cancelWorkers(); // an index worker died before the others were submitted
+
+            downloadsDone.await();
+            for (int i = 0; i < indexWorkers && handOff(POISON); i++) {}
+            for (Future<?> f : indexers) {
+                try {
+                    f.get();
+                } catch (ExecutionException | CancellationException ignored) {
+                    // recorded by abort()
+                }
+            }
+            status = aborted ? "failed" : "completed";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            status = "cancelled";
+        } catch (RuntimeException e) {
+            // the indexed-books lookup failed
+            error("listing indexed books: " + message(e));
+            status = "failed";
+        } finally {
+            cancelWorkers();
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private void download(BlockingQueue<Integer> todo) throws InterruptedException {
+        for (Integer id; !aborted && (id = todo.poll()) != null; ) {
+            long t = ingest.begin();
+            Downstream.Outcome outcome;
+            try {
+                outcome = Downstream.ingest(id).join();
+            } catch (RuntimeException e) {
+                ingest.end(t, false);
+                fail(id, "ingest", e);
+                continue;
+            }
+            ingest.end(t, outcome == Downstream.Outcome.OK);
+            if (outcome == Downstream.Outcome.OK) {
+                if (!handOff(id)) return;
+            } else {
+                (outcome == Downstream.Outcome.NOT_FOUND ? notFound : failed).add(id);
+            }
+        }
+    }
+
+    private void indexArrivals() throws InterruptedException {
+        for (int id; (id = ingested.take()) != POISON; ) {
+            long t = index.begin();
+            Downstream.Outcome outcome;
+            try {
+                outcome = Downstream.index(id).join();
+            } catch (RuntimeException e) {
+                index.end(t, false);
+                fail(id, "index", e);
+                continue;
+            }
+            index.end(t, outcome == Downstream.Outcome.OK);
+            if (outcome != Downstream.Outcome.OK) failed.add(id);
+        }
+    }
+
+    /** Puts a book into the buffer, giving up once the job is aborted; false if it gave up. */
+    private boolean handOff(int id) throws InterruptedException {
+        while (!ingested.offer(id, HANDOFF_WAIT_MS, TimeUnit.MILLISECONDS)) {
+            if (aborted) return false;
+        }
+        return true;
+    }
+
+    /** An index worker died: nothing would drain the buffer, so stop every worker. */
+    private void abort(Throwable e) {
+        aborted = true;
+        error("index worker died: " + message(e));
+        System.err.println("Batch " + id + " failed: " + e);
+        cancelWorkers();
+    }
+
+    private void cancelWorkers() {
+        synchronized (workers) {
+            for (Future<?> f : workers) f.cancel(true);
+        }
+    }
+
+    private void fail(int bookId, String stage, RuntimeException e) {
+        failed.add(bookId);
+        error(stage + " " + bookId + ": " + message(e));
+    }
+
+    private void error(String message) {
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) errors.add(message);
+        }
+    }
+
+    private static String message(Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName();
+    }
+
+    public Map<String, Object> progress() {
+        long begun = startNanos;
+        long now = finished() ? endNanos : System.nanoTime();
+        double elapsed = begun == 0 ? 0 : Math.max(1e-9, (now - begun) / 1e9);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("job_id", id);
+        result.put("status", status);
+        result.put("started_at", startedAt);
+        result.put("books_total", ids.size());
+        result.put("skipped", skipped);
+        result.put("indexed", index.done.sum());
+        result.put("not_found", notFound.size());
+        result.put("failed", failed.size());
+        result.put("elapsed_time", String.format("%.2fs", elapsed));
+        result.put("books_per_s", elapsed > 0 ? round(index.done.sum() / elapsed) : 0.0);
+        Map<String, Object> stages = new LinkedHashMap<>();
+        stages.put("ingest", ingest.report());
+        stages.put("index", index.report());
+        result.put("stages", stages);
+        if (!notFound.isEmpty()) result.put("not_found_ids", sorted(notFound));
+        if (!failed.isEmpty()) result.put("failed_ids", sorted(failed));
+        synchronized (errors) {
+            if (!errors.isEmpty()) result.put("errors", new ArrayList<>(errors));
+        }
+        return result;
+    }
+
+    private static List<Integer> sorted(List<Integer> ids) {
+        synchronized (ids) {
+            List<Integer> copy = new ArrayList<>(ids);
+            Collections.sort(copy);
+            return copy;
+        }
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+
+    /** Books handled by a stage, the time its workers spent busy, and the stage's wall time. */
+    private static final class StageTimer {
+        final LongAdder done = new LongAdder();
+        final LongAdder calls = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+        final AtomicLong last = new AtomicLong();
+
+        long begin() {
+            long t = System.nanoTime();
+            first.accumulateAndGet(t, Math::min);
+            return t;
+        }
+
+        void end(long started, boolean ok) {
+            long t = System.nanoTime();
+            busyNanos.add(t - started);
+            last.accumulateAndGet(t, Math::max);
+            calls.increment();
+            if (ok) done.increment();
+        }
+
+        Map<String, Object> report() {
+            double wall = calls.sum() == 0 ? 0 : (last.get() - first.get()) / 1e9;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("books", done.sum());
+            m.put("elapsed_time", String.format("%.2fs", wall));
+            m.put("books_per_s", wall > 0 ? round(done.sum() / wall) : 0.0);
+            m.put("avg_ms", calls.sum() == 0 ? 0.0 : round(busyNanos.sum() / 1e6 / calls.sum()));
+            return m;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.control;
+
+/**
+ * Consecutive-failure circuit breaker. After {@code threshold} failures in a row the circuit
+ * opens and calls fail fast for {@code openMillis}; then a single trial call is let through
+ * (half-open) and its outcome closes or re-opens the circuit.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int threshold;
+    private final long openMillis;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private long rejected;
+
+    public CircuitBreaker(int threshold, long openMillis) {
+        this.threshold = threshold;
+        this.openMillis = openMillis;
+    }
+
+    /** Whether a call may go out now. */
+    public synchronized boolean allow() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            return true;
+        }
+        if (state == State.CLOSED) return true;
+        rejected++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN || ++failures >= threshold) {
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    public synchronized long rejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,132 @@
+package com.control;
+
+import com.example.metrics.Metrics;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Calls into the ingestion and indexing services, shared by the synchronous, queued and
+ * batch pipelines. Addresses come from {@code INGESTION_HOST}/{@code INGEST_PORT} and
+ * {@code INDEXING_HOST}/{@code INDEX_PORT}, the ports docker-compose already sets.
+ */
+public class Downstream {
+
+    private static final Duration INGEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration INDEX_TIMEOUT = Duration.ofSeconds(60);
+    private static final Duration STATUS_TIMEOUT = Duration.ofSeconds(3);
+    private static final Duration LIST_TIMEOUT = Duration.ofSeconds(10);
+
+    static final ServiceClient INGESTION = client("ingestion", "INGESTION_HOST", "INGEST_PORT", "7001");
+    static final ServiceClient INDEXING = client("indexing", "INDEXING_HOST", "INDEX_PORT", "7002");
+
+    private static final Metrics.Timer checkTimer = Metrics.stage("is_indexed");
+    private static final Metrics.Timer ingestTimer = Metrics.stage("ingest");
+    private static final Metrics.Timer indexTimer = Metrics.stage("index");
+    private static final Metrics.Timer listTimer = Metrics.stage("list_indexed");
+    private static final Metrics.Timer parseTimer = Metrics.stage("json_parse");
+
+    public enum Outcome { OK, NOT_FOUND, FAILED }
+
+    private static ServiceClient client(String name, String hostVar, String portVar, String defaultPort) {
+        String url = "http://" + env(hostVar, "localhost") + ":" + env(portVar, defaultPort);
+        return new ServiceClient(name, url,
+                Integer.parseInt(env("DOWNSTREAM_RETRIES", "2")),
+                Long.parseLong(env("DOWNSTREAM_BACKOFF_MS", "200")),
+                new CircuitBreaker(Integer.parseInt(env("BREAKER_FAILURES", "5")),
+                        Long.parseLong(env("BREAKER_OPEN_MS", "10000"))));
+    }
+
+    private static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? def : v;
+    }
+
+    public static CompletableFuture<Outcome> ingest(int bookId) {
+        return ingest(bookId, null);
+    }
+
+    /** @param trace records the call as stage {@code ingest}, may be null */
+    public static CompletableFuture<Outcome> ingest(int bookId, Trace trace) {
+        return timed(ingestTimer, "ingest", trace, () -> INGESTION.post("/ingest/" + bookId, INGEST_TIMEOUT, traceId(trace)))
+                .thenApply(resp -> {
+                    if (resp.status == 404) return Outcome.NOT_FOUND;
+                    if (resp.status != 200) return Outcome.FAILED;
+                    JsonObject body = parse(resp.body).getAsJsonObject();
+                    return body.has("status") && "downloaded".equals(body.get("status").getAsString())
+                            ? Outcome.OK : Outcome.NOT_FOUND;
+                })
+                .exceptionally(e -> Outcome.FAILED);
+    }
+
+    public static CompletableFuture<Outcome> index(int bookId) {
+        return index(bookId, null);
+    }
+
+    /** @param trace records the call as stage {@code index}, may be null */
+    public static CompletableFuture<Outcome> index(int bookId, Trace trace) {
+        return timed(indexTimer, "index", trace, () -> INDEXING.post("/index/update/" + bookId, INDEX_TIMEOUT, traceId(trace)))
+                .thenApply(resp -> resp.status == 404 ? Outcome.NOT_FOUND
+                        : resp.status == 200 ? Outcome.OK : Outcome.FAILED)
+                .exceptionally(e -> Outcome.FAILED);
+    }
+
+    /** Ids of every indexed book, fetched in one call. */
+    public static CompletableFuture<Set<Integer>> indexedBooks() {
+        return timed(listTimer, "list_indexed", null, () -> INDEXING.get("/index/books", LIST_TIMEOUT, null)).thenApply(resp -> {
+            if (resp.status != 200) throw new IllegalStateException("Indexing service answered " + resp.status);
+            Set<Integer> ids = new HashSet<>();
+            for (JsonElement e : parse(resp.body).getAsJsonObject().getAsJsonArray("books")) {
+                ids.add(e.getAsInt());
+            }
+            return ids;
+        });
+    }
+
+    public static CompletableFuture<Boolean> isIndexed(int bookId) {
+        return isIndexed(bookId, null);
+    }
+
+    /** @param trace records the call as stage {@code is_indexed}, may be null */
+    public static CompletableFuture<Boolean> isIndexed(int bookId, Trace trace) {
+        return timed(checkTimer, "is_indexed", trace, () -> INDEXING.get("/index/status/" + bookId, STATUS_TIMEOUT, traceId(trace)))
+                .thenApply(resp -> resp.status == 200 && parse(resp.body).getAsJsonObject().get("indexed").getAsBoolean());
+    }
+
+    /** Times a downstream call, retries included, in the metrics and in the run's trace. */
+    private static CompletableFuture<ServiceClient.Response> timed(Metrics.Timer timer, String stage, Trace trace,
+                                                                   Supplier<CompletableFuture<ServiceClient.Response>> call) {
+        long start = System.nanoTime();
+        return call.get().whenComplete((resp, err) -> {
+            long nanos = System.nanoTime() - start;
+            timer.record(nanos);
+            if (trace != null) trace.record(stage, nanos, resp == null ? null : resp.serverTiming);
+        });
+    }
+
+    private static String traceId(Trace trace) {
+        return trace == null ? null : trace.id;
+    }
+
+    private static JsonElement parse(String body) {
+        long start = System.nanoTime();
+        JsonElement json = JsonParser.parseString(body);
+        parseTimer.since(start);
+        return json;
+    }
+
+    public static Map<String, Object> status() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("ingestion", INGESTION.status());
+        m.put("indexing", INDEXING.status());
+        return m;
+    }
+}
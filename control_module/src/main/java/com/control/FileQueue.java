@@ -0,0 +1,173 @@
+package com.control;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable single-consumer queue of book ids, backed by one append-only file.
+ * <p>
+ * Records are text lines {@code bookId attempt enqueuedAtMillis} (tab-separated) appended to
+ * {@code <dir>/log}. The consumer {@link #poll}s batches and {@link #ack}s them once handled;
+ * the acknowledged byte offset lives in {@code <dir>/offset}, so after a crash everything
+ * polled but not acknowledged is delivered again (at least once). When the consumer has
+ * caught up and the log is larger than {@link #COMPACT_BYTES}, the log is truncated.
+ * <p>
+ * With {@code fsync} every enqueue, truncation and offset update is on disk before it returns:
+ * the offset file is synced before it is renamed in and the directory after, so a crash can
+ * neither lose a record nor leave an empty or stale offset behind. Without it the OS decides
+ * when to write, and a power loss may drop or redeliver recent records.
+ */
+public class FileQueue {
+
+    static final long COMPACT_BYTES = 4 * 1024 * 1024;
+    private static final int READ_CHUNK = 64 * 1024;
+
+    public static final class Record {
+        public final int bookId;
+        public final int attempt;
+        public final long enqueuedAt;
+        final long end;
+
+        Record(int bookId, int attempt, long enqueuedAt, long end) {
+            this.bookId = bookId;
+            this.attempt = attempt;
+            this.enqueuedAt = enqueuedAt;
+            this.end = end;
+        }
+    }
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private final String name;
+    private final Path dir;
+    private final Path offsetFile;
+    private final boolean fsync;
+    private final FileChannel log;
+    private long size;
+    private long readPos;
+    private long ackedPos;
+    private int depth;
+
+    public FileQueue(Path dir, String name, boolean fsync) throws IOException {
+        this.name = name;
+        this.fsync = fsync;
+        this.dir = dir;
+        Files.createDirectories(dir);
+        this.offsetFile = dir.resolve("offset");
+        this.log = FileChannel.open(dir.resolve("log"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (fsync) syncDirectory(); // the log may have just been created
+        this.size = log.size();
+        try {
+            ackedPos = Math.min(size, Long.parseLong(Files.readString(offsetFile).trim()));
+        } catch (NoSuchFileException | NumberFormatException e) {
+            ackedPos = 0;
+        }
+        readPos = ackedPos;
+
+        // count what is still pending, dropping a torn last line
+        long lineStart = ackedPos;
+        for (long pos = ackedPos; pos < size; ) {
+            ByteBuffer buf = ByteBuffer.allocate(READ_CHUNK);
+            int n = log.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    depth++;
+                    lineStart = pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        if (lineStart < size) {
+            log.truncate(lineStart);
+            size = lineStart;
+        }
+    }
+
+    public String name() { return name; }
+
+    public synchronized void offer(int bookId, int attempt) throws IOException {
+        byte[] line = (bookId + "\t" + attempt + "\t" + System.currentTimeMillis() + "\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buf = ByteBuffer.wrap(line);
+        while (buf.hasRemaining()) size += log.write(buf, size);
+        if (fsync) log.force(false);
+        depth++;
+        notifyAll();
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for at least one record and returns up to {@code max}
+     * records after the last one handed out. Returns an empty list on timeout.
+     */
+    public synchronized List<Record> poll(int max, long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (readPos >= size) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) return List.of();
+            wait(wait);
+        }
+
+        List<Record> records = new ArrayList<>(Math.min(max, 256));
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(READ_CHUNK, size - readPos));
+        while (buf.hasRemaining() && log.read(buf, readPos + buf.position()) > 0) {}
+        byte[] data = buf.array();
+        int start = 0;
+        for (int i = 0; i < buf.position() && records.size() < max; i++) {
+            if (data[i] != '\n') continue;
+            String[] f = new String(data, start, i - start, StandardCharsets.US_ASCII).split("\t");
+            records.add(new Record(Integer.parseInt(f[0]), Integer.parseInt(f[1]), Long.parseLong(f[2]), readPos + i + 1));
+            start = i + 1;
+        }
+        readPos += start;
+        return records;
+    }
+
+    /** Marks everything up to and including {@code last} as done. */
+    public synchronized void ack(Record last, int count) throws IOException {
+        ackedPos = last.end;
+        depth -= count;
+        if (ackedPos == size && readPos == size && size > COMPACT_BYTES) {
+            log.truncate(0);
+            // an offset of 0 must not reach the disk before the truncation does
+            if (fsync) log.force(true);
+            size = readPos = ackedPos = 0;
+        }
+        Path tmp = offsetFile.resolveSibling("offset.tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(Long.toString(ackedPos).getBytes(StandardCharsets.US_ASCII));
+            while (buf.hasRemaining()) ch.write(buf);
+            if (fsync) ch.force(true);
+        }
+        Files.move(tmp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (fsync) syncDirectory();
+    }
+
+    /** Makes a rename in the queue directory durable; Windows cannot open directories, and NTFS journals renames. */
+    private void syncDirectory() throws IOException {
+        if (WINDOWS) return;
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        }
+    }
+
+    /** Records enqueued but not yet acknowledged. */
+    public synchronized int depth() {
+        return depth;
+    }
+
+    /** Age in milliseconds of the oldest unacknowledged record, 0 when empty. */
+    public synchronized long lagMillis() throws IOException {
+        if (ackedPos >= size) return 0;
+        ByteBuffer buf = ByteBuffer.allocate((int) Math.min(64, size - ackedPos));
+        log.read(buf, ackedPos);
+        String line = new String(buf.array(), 0, buf.position(), StandardCharsets.US_ASCII);
+        int nl = line.indexOf('\n');
+        String[] f = (nl < 0 ? line : line.substring(0, nl)).split("\t");
+        return Math.max(0, System.currentTimeMillis() - Long.parseLong(f[2]));
+    }
+}
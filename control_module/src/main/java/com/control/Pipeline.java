@@ -0,0 +1,165 @@
+package com.control;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Asynchronous pipeline over two local {@link FileQueue}s.
+ * <p>
+ * {@link #submit} appends a book to the {@code ingest} queue. The ingest stage downloads
+ * books a batch at a time and, for every book downloaded, emits a "book ingested" event onto
+ * the {@code index} queue, which the index stage drains in batches. A batch is acknowledged
+ * only after all of its books were handled, so a restart re-runs at most one batch per
+ * stage. Transient failures are re-queued until {@code maxAttempts} is reached.
+ */
+public class Pipeline {
+
+    private final Stage ingest;
+    private final Stage index;
+    private final int maxAttempts;
+
+    public Pipeline(Path dir, boolean fsync, int ingestWorkers, int indexWorkers, int indexBatch, int maxAttempts) throws IOException {
+        this.maxAttempts = maxAttempts;
+        this.ingest = new Stage(new FileQueue(dir.resolve("ingest"), "ingest", fsync), ingestWorkers, ingestWorkers);
+        this.index = new Stage(new FileQueue(dir.resolve("index"), "index", fsync), indexWorkers, indexBatch);
+    }
+
+    public void start() {
+        ingest.start(this::ingestOne);
+        index.start(this::indexOne);
+    }
+
+    public void submit(int bookId) throws IOException {
+        ingest.queue.offer(bookId, 1);
+    }
+
+    private void ingestOne(FileQueue.Record r) throws IOException {
+        if (Downstream.isIndexed(r.bookId).join()) {
+            ingest.skipped.increment();
+            return;
+        }
+        Downstream.Outcome outcome = Downstream.ingest(r.bookId).join();
+        if (outcome == Downstream.Outcome.OK) index.queue.offer(r.bookId, 1);
+        ingest.settle(r, outcome);
+    }
+
+    private void indexOne(FileQueue.Record r) throws IOException {
+        index.settle(r, Downstream.index(r.bookId).join());
+    }
+
+    public Map<String, Object> status() throws IOException {
+        Map<String, Object> stages = new LinkedHashMap<>();
+        stages.put("ingest", ingest.status());
+        stages.put("index", index.status());
+        return stages;
+    }
+
+    private interface Handler {
+        void handle(FileQueue.Record r) throws IOException;
+    }
+
+    private final class Stage {
+        final FileQueue queue;
+        final int batchSize;
+        final ExecutorService workers;
+        final LongAdder done = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder skipped = new LongAdder();
+        final LongAdder retried = new LongAdder();
+        final Meter meter = new Meter();
+
+        Stage(FileQueue queue, int threads, int batchSize) {
+            this.queue = queue;
+            this.batchSize = batchSize;
+            this.workers = Executors.newFixedThreadPool(threads, r -> {
+                Thread t = new Thread(r, queue.name() + "-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        void start(Handler handler) {
+            Thread dispatcher = new Thread(() -> run(handler), queue.name() + "-stage");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+
+        private void run(Handler handler) {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    List<FileQueue.Record> batch = queue.poll(batchSize, 1000);
+                    if (batch.isEmpty()) continue;
+                    List<Callable<Void>> tasks = new ArrayList<>(batch.size());
+                    for (FileQueue.Record r : batch) {
+                        tasks.add(() -> {
+                            try {
+                                handler.handle(r);
+                            } catch (Exception e) {
+                                settle(r, Downstream.Outcome.FAILED);
+                            }
+                            return null;
+                        });
+                    }
+                    workers.invokeAll(tasks);
+                    queue.ack(batch.get(batch.size() - 1), batch.size());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    System.err.println("Pipeline stage " + queue.name() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        void settle(FileQueue.Record r, Downstream.Outcome outcome) throws IOException {
+            if (outcome == Downstream.Outcome.OK) {
+                done.increment();
+                meter.mark();
+            } else if (outcome == Downstream.Outcome.FAILED && r.attempt < maxAttempts) {
+                retried.increment();
+                queue.offer(r.bookId, r.attempt + 1);
+            } else {
+                failed.increment();
+            }
+        }
+
+        Map<String, Object> status() throws IOException {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("depth", queue.depth());
+            m.put("lag_ms", queue.lagMillis());
+            m.put("done", done.sum());
+            m.put("failed", failed.sum());
+            m.put("skipped", skipped.sum());
+            m.put("retried", retried.sum());
+            m.put("throughput_per_s", meter.perSecond());
+            return m;
+        }
+    }
+
+    /** Completions per second over the last minute, in one-second buckets. */
+    static final class Meter {
+        private static final int WINDOW = 60;
+        private final AtomicLongArray counts = new AtomicLongArray(WINDOW);
+        private final AtomicLongArray seconds = new AtomicLongArray(WINDOW);
+
+        void mark() {
+            long now = System.currentTimeMillis() / 1000;
+            int slot = (int) (now % WINDOW);
+            long stamp = seconds.get(slot);
+            if (stamp != now && seconds.compareAndSet(slot, stamp, now)) counts.set(slot, 0);
+            counts.incrementAndGet(slot);
+        }
+
+        double perSecond() {
+            long now = System.currentTimeMillis() / 1000;
+            long total = 0;
+            for (int i = 0; i < WINDOW; i++) {
+                if (now - seconds.get(i) < WINDOW) total += counts.get(i);
+            }
+            return Math.round(total * 100.0 / WINDOW) / 100.0;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.control;
+
+import com.example.metrics.Metrics;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking client for one downstream service. All clients share a single pooled
+ * {@link HttpClient}; each has its own circuit breaker and latency histogram. Only failures
+ * that prove the request was not processed are retried: a connection that could not be
+ * opened, and 503 (the services' admission control), which waits at least its
+ * {@code Retry-After}. Timeouts and other 5xx answers may come after the downstream did the
+ * work, and the POSTs are not idempotent, so they are returned to the caller, whose own
+ * retry (the pipeline's attempts) is then the only one. While the circuit is open calls fail
+ * immediately with {@link Unavailable}.
+ */
+public class ServiceClient {
+
+    private static final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+
+    /** Thrown (inside the future) when the circuit is open. */
+    public static final class Unavailable extends IOException {
+        Unavailable(String name) {
+            super(name + " is unavailable (circuit open)");
+        }
+    }
+
+    public static final class Response {
+        public final int status;
+        public final String body;
+        /** The service's {@code Server-Timing} header, null when it sent none. */
+        public final String serverTiming;
+
+        Response(int status, String body, String serverTiming) {
+            this.status = status;
+            this.body = body;
+            this.serverTiming = serverTiming;
+        }
+    }
+
+    private static final LongAdder bytesRead = Metrics.counter("downstream_bytes_read_total",
+            "Response bytes received from the ingestion and indexing services.");
+
+    private final String name;
+    private final String baseUrl;
+    private final int maxRetries;
+    private final long backoffMillis;
+    private final CircuitBreaker breaker;
+    private final Metrics.Timer latency;
+
+    public ServiceClient(String name, String baseUrl, int maxRetries, long backoffMillis, CircuitBreaker breaker) {
+        this.name = name;
+        this.baseUrl = baseUrl;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+        this.breaker = breaker;
+        this.latency = Metrics.timer("downstream_request_seconds",
+                "Time for each attempt at a request to the ingestion and indexing services.", "downstream", name);
+    }
+
+    /** @param traceId sent as {@code X-Trace-Id}, may be null */
+    public CompletableFuture<Response> get(String path, Duration timeout, String traceId) {
+        return send(request(path, timeout, traceId).GET().build(), 1);
+    }
+
+    /** @param traceId sent as {@code X-Trace-Id}, may be null */
+    public CompletableFuture<Response> post(String path, Duration timeout, String traceId) {
+        return send(request(path, timeout, traceId).POST(HttpRequest.BodyPublishers.noBody()).build(), 1);
+    }
+
+    private HttpRequest.Builder request(String path, Duration timeout, String traceId) {
+        HttpRequest.Builder b = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(timeout);
+        if (traceId != null) b.header(Metrics.TRACE_HEADER, traceId);
+        return b;
+    }
+
+    private CompletableFuture<Response> send(HttpRequest request, int attempt) {
+        if (!breaker.allow()) return CompletableFuture.failedFuture(new Unavailable(name));
+        long start = System.nanoTime();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .handle((resp, err) -> {
+                    latency.since(start);
+                    if (resp != null) bytesRead.add(resp.body().length);
+                    boolean transientFailure = err != null || resp.statusCode() == 429 || resp.statusCode() >= 500;
+                    if (transientFailure) breaker.onFailure();
+                    else breaker.onSuccess();
+
+                    if (!retryable(err, resp) || attempt > maxRetries) {
+                        return err != null
+                                ? CompletableFuture.<Response>failedFuture(err)
+                                : CompletableFuture.completedFuture(new Response(resp.statusCode(),
+                                        new String(resp.body(), StandardCharsets.UTF_8),
+                                        resp.headers().firstValue("Server-Timing").orElse(null)));
+                    }
+                    long cap = backoffMillis << Math.min(attempt - 1, 10);
+                    long delay = Math.max(ThreadLocalRandom.current().nextLong(cap + 1), retryAfterMillis(resp));
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(x -> send(request, attempt + 1));
+                })
+                .thenCompose(f -> f);
+    }
+
+    private static boolean retryable(Throwable err, HttpResponse<?> resp) {
+        if (err instanceof CompletionException && err.getCause() != null) err = err.getCause();
+        if (err != null) return err instanceof ConnectException || err instanceof HttpConnectTimeoutException;
+        return resp.statusCode() == 503;
+    }
+
+    /** The delay a 503's {@code Retry-After} asks for, 0 without one (or with an HTTP date). */
+    private static long retryAfterMillis(HttpResponse<?> resp) {
+        if (resp == null) return 0;
+        try {
+            return resp.headers().firstValue("Retry-After").map(v -> Long.parseLong(v.trim()) * 1000).orElse(0L);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public Map<String, Object> status() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("url", baseUrl);
+        m.put("circuit", breaker.state().name().toLowerCase());
+        m.put("rejected", breaker.rejected());
+        m.put("latency", latency.summary());
+        return m;
+    }
+}
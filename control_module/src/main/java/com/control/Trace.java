@@ -0,0 +1,53 @@
+package com.control;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stage breakdown of one pipeline run. The id goes to every downstream call as
+ * {@code X-Trace-Id}; each call is recorded under its stage name, followed by the stages the
+ * service reported for it in {@code Server-Timing}, prefixed with the stage name
+ * ({@code ingest.download}, {@code index.tokenize}, ...). Times are in milliseconds.
+ */
+public final class Trace {
+
+    public final String id;
+    private final Map<String, Double> millis = new LinkedHashMap<>();
+
+    public Trace(String id) {
+        this.id = id;
+    }
+
+    synchronized void record(String stage, long nanos, String serverTiming) {
+        millis.merge(stage, nanos / 1e6, Double::sum);
+        if (serverTiming == null) return;
+        // name;desc="...";dur=12.5, name2;dur=3
+        for (String metric : serverTiming.split(",")) {
+            String[] params = metric.trim().split(";");
+            for (int i = 1; i < params.length; i++) {
+                String p = params[i].trim();
+                if (!p.startsWith("dur=")) continue;
+                try {
+                    millis.merge(stage + "." + params[0].trim(), Double.parseDouble(p.substring(4)), Double::sum);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+    }
+
+    /** Milliseconds per stage, rounded to 0.01 ms, in the order the stages first ran. */
+    public synchronized Map<String, Double> millis() {
+        Map<String, Double> m = new LinkedHashMap<>();
+        millis.forEach((stage, ms) -> m.put(stage, Math.round(ms * 100) / 100.0));
+        return m;
+    }
+
+    /** The breakdown as a {@code Server-Timing} header value. */
+    public synchronized String serverTiming() {
+        StringBuilder sb = new StringBuilder();
+        millis().forEach((stage, ms) -> {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(stage).append(";dur=").append(ms);
+        });
+        return sb.toString();
+    }
+}
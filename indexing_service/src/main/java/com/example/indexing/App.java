@@ -1,15 +1,18 @@
 package com.example.indexing;
 
+import com.example.metrics.Metrics;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -18,64 +21,238 @@ public class App {
     private static final Gson gson = new Gson();
     private static final String DATALAKE_ROOT = "datalake";
     private static final String DATAMART_ROOT = "datamart";
-    private static int booksIndexed = 0;
-    private static String lastUpdate = "";
+    private static final boolean POSITIONS = Boolean.parseBoolean(env("INDEX_POSITIONS", "true"));
+    private static final DatalakeCatalog catalog = new DatalakeCatalog(Paths.get(DATALAKE_ROOT));
+    // SHARD_COUNT > 1 splits the segments into one directory per search shard
+    private static final ShardedSegments segments = new ShardedSegments(
+            Paths.get(DATAMART_ROOT, "segments"), Integer.parseInt(env("SHARD_COUNT", "1")), POSITIONS);
+    // tiered merges: at least MIN and at most MAX similar-sized segments, together at most MAX_MB
+    private static final int MERGE_MIN_SEGMENTS = Integer.parseInt(env("INDEX_MERGE_MIN_SEGMENTS", "10"));
+    private static final int MERGE_MAX_SEGMENTS = Math.max(MERGE_MIN_SEGMENTS,
+            Integer.parseInt(env("INDEX_MERGE_MAX_SEGMENTS", "10")));
+    private static final long MERGE_MAX_BYTES = Long.parseLong(env("INDEX_MERGE_MAX_MB", "128")) * 1024 * 1024;
+    private static final ExecutorService rebuildPool = new ForkJoinPool(
+            Integer.parseInt(env("INDEX_THREADS", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+    private static final long REBUILD_MAX_INFLIGHT_BYTES = Long.parseLong(env("INDEX_MAX_INFLIGHT_MB", "256")) * 1024 * 1024;
+    // one thread per concurrent rebuild job; the books themselves are indexed on rebuildPool
+    private static final int REBUILD_MAX_JOBS = Integer.parseInt(env("INDEX_REBUILD_MAX_JOBS", "2"));
+    private static final ExecutorService rebuildRunner = new ThreadPoolExecutor(
+            REBUILD_MAX_JOBS, REBUILD_MAX_JOBS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(Integer.parseInt(env("INDEX_REBUILD_QUEUE", "4"))), r -> {
+                Thread t = new Thread(r, "rebuild-runner");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final long REBUILD_JOB_TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.parseLong(env("INDEX_REBUILD_JOB_TTL_S", "3600")));
+    private static final int REBUILD_JOBS_KEPT = Integer.parseInt(env("INDEX_REBUILD_JOBS_KEPT", "100"));
+    private static final Map<String, RebuildJob> rebuildJobs = new ConcurrentHashMap<>();
+    private static final AtomicInteger jobSequence = new AtomicInteger();
+    private static final BookUpdates updates = new BookUpdates(Integer.parseInt(env("INDEX_LOCK_STRIPES", "64")));
+    private static final Metrics.Timer lookupTimer = Metrics.stage("lookup");
+    private static final Metrics.Timer readTimer = Metrics.stage("read");
+    private static final Metrics.Timer tokenizeTimer = Metrics.stage("tokenize");
+    private static final Metrics.Timer writeTimer = Metrics.stage("write");
+    private static final Metrics.Timer mergeTimer = Metrics.stage("merge");
+    private static final LongAdder bytesRead = Metrics.counter("datalake_bytes_read_total",
+            "Book bytes read from the datalake, after decompression.");
+
+    public static void main(String[] args) throws IOException {
+        segments.open();
+        recoverPending();
+        ScheduledExecutorService merger = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "segment-merge");
+            t.setDaemon(true);
+            return t;
+        });
+        merger.scheduleWithFixedDelay(() -> {
+            try {
+                long start = System.nanoTime();
+                if (segments.merge(MERGE_MIN_SEGMENTS, MERGE_MAX_SEGMENTS, MERGE_MAX_BYTES) > 0) mergeTimer.since(start);
+            } catch (IOException | RuntimeException e) {
+                // an exception escaping the task would cancel every later merge
+                System.err.println("Segment merge failed: " + e);
+            }
+        }, 30, 30, TimeUnit.SECONDS);
 
-    public static void main(String[] args) {
         Javalin app = Javalin.create(cfg -> {
             cfg.http.defaultContentType = "application/json";
-        }).start(7002);
+        }).start(Integer.parseInt(env("INDEX_PORT", "7002")));
+        Metrics.install(app, "indexing_", Long.parseLong(env("SLOW_REQUEST_MS", "1000")));
+        Metrics.gauge("books_indexed", "Books in the index.", () -> segments.indexedBooks().size());
+        Metrics.gauge("update_queue_depth", "Book updates waiting for their book's lock.", updates::queueDepth);
 
         app.get("/status", ctx -> {
             JsonObject st = new JsonObject();
-            st.addProperty("books_indexed", booksIndexed);
-            st.addProperty("last_update", lastUpdate.isEmpty() ? "never" : lastUpdate);
+            Instant last = updates.lastUpdate();
+            st.addProperty("books_indexed", segments.indexedBooks().size());
+            st.addProperty("last_update", last == null ? "never" : last.toString());
+            long[] generations = segments.generations();
+            st.addProperty("generation", Arrays.stream(generations).sum());
+            st.addProperty("shards", segments.shardCount());
+            if (generations.length > 1) st.add("shard_generations", gson.toJsonTree(generations));
+            st.add("updates", gson.toJsonTree(updates.stats()));
+            st.addProperty("rebuilds_running", rebuildJobs.values().stream().filter(j -> !j.finished()).count());
             ctx.result(gson.toJson(st));
         });
 
         app.post("/index/update/{book_id}", App::handleUpdateBook);
         app.post("/index/rebuild", App::handleRebuild);
+        app.get("/index/rebuild/{job_id}", App::handleRebuildStatus);
+        app.get("/index/status/{book_id}", App::handleBookStatus);
+        app.get("/index/books", App::handleBooks);
+        app.post("/index/merge", App::handleMerge);
+        app.get("/index/export/{book_id}", App::handleExport);
+    }
+
+    /** Redoes the book updates the write-ahead log shows were cut short by a crash. */
+    private static void recoverPending() {
+        for (int bookId : segments.pendingBooks()) {
+            try {
+                updates.update(bookId, App::indexBook);
+                System.out.println("Recovered interrupted update of book " + bookId);
+            } catch (NoSuchFileException e) {
+                try {
+                    segments.abandon(bookId);
+                } catch (IOException ignored) {}
+                System.err.println("Interrupted update of book " + bookId + " dropped: not in datalake");
+            } catch (IOException e) {
+                System.err.println("Recovery of book " + bookId + " failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? def : v;
     }
 
     private static void handleUpdateBook(Context ctx) {
         String idStr = ctx.pathParam("book_id");
         try {
             int bookId = Integer.parseInt(idStr);
-            Optional<Path> rawPath = findRawFile(bookId);
-            if (rawPath.isEmpty()) {
-                ctx.status(404).result(gson.toJson(Map.of("error", "Book not found in datalake")));
-                return;
-            }
-            processBook(bookId, rawPath.get());
+            updates.update(bookId, App::indexBook);
             ctx.result(gson.toJson(Map.of("book_id", bookId, "index", "updated")));
         } catch (NumberFormatException e) {
             ctx.status(400).result(gson.toJson(Map.of("error", "Invalid book_id")));
+        } catch (NoSuchFileException e) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Book not found in datalake")));
         } catch (IOException e) {
             ctx.status(500).result(gson.toJson(Map.of("error", e.getMessage())));
         }
     }
 
     private static void handleRebuild(Context ctx) {
-        Set<Path> raws = findAllRawFiles();
-        int count = 0;
-        long start = System.currentTimeMillis();
-        for (Path p : raws) {
-            try {
-                String name = p.getParent().getFileName().toString();
-                int id = Integer.parseInt(name);
-                processBook(id, p);
-                count++;
-            } catch (Exception ignored) {}
+        String jobId = "rebuild-" + jobSequence.incrementAndGet();
+        RebuildJob job = new RebuildJob(jobId, App::findAllRawFiles,
+                (bookId, rawPath) -> updates.locked(bookId, id -> processBook(id, rawPath)),
+                rebuildPool, REBUILD_MAX_INFLIGHT_BYTES);
+        evictFinishedJobs();
+        try {
+            rebuildRunner.execute(job);
+        } catch (RejectedExecutionException e) {
+            ctx.status(503).header("Retry-After", "60")
+                    .result(gson.toJson(Map.of("error", "Too many rebuilds running or queued")));
+            return;
+        }
+        rebuildJobs.put(jobId, job);
+
+        ctx.status(202).result(gson.toJson(Map.of("job_id", jobId, "status", "started",
+                "progress", "/index/rebuild/" + jobId)));
+    }
+
+    /** Forgets finished jobs older than the TTL, and the oldest beyond the newest {@code REBUILD_JOBS_KEPT}. */
+    private static void evictFinishedJobs() {
+        long now = System.nanoTime();
+        List<RebuildJob> finished = new ArrayList<>();
+        for (RebuildJob job : rebuildJobs.values()) {
+            if (!job.finished()) continue;
+            if (now - job.finishedNanos() > REBUILD_JOB_TTL_NANOS) rebuildJobs.remove(job.id());
+            else finished.add(job);
+        }
+        finished.sort(Comparator.comparingLong(RebuildJob::finishedNanos));
+        for (int i = 0; i < finished.size() - REBUILD_JOBS_KEPT; i++) rebuildJobs.remove(finished.get(i).id());
+    }
+
+    private static void handleRebuildStatus(Context ctx) {
+        RebuildJob job = rebuildJobs.get(ctx.pathParam("job_id"));
+        if (job == null) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "Unknown rebuild job")));
+            return;
+        }
+        ctx.result(gson.toJson(job.progress()));
+    }
+
+    private static void handleBookStatus(Context ctx) {
+        try {
+            int bookId = Integer.parseInt(ctx.pathParam("book_id"));
+            ctx.result(gson.toJson(Map.of("book_id", bookId, "indexed", segments.isIndexed(bookId))));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result(gson.toJson(Map.of("error", "Invalid book_id")));
+        }
+    }
+
+    /** Every indexed book id, for callers that check many books at once. */
+    private static void handleBooks(Context ctx) {
+        int[] ids = segments.indexedBooks().stream().mapToInt(Integer::intValue).sorted().toArray();
+        JsonObject result = new JsonObject();
+        result.addProperty("count", ids.length);
+        result.add("books", gson.toJsonTree(ids));
+        ctx.result(gson.toJson(result));
+    }
+
+    private static void handleMerge(Context ctx) {
+        try {
+            long start = System.nanoTime();
+            int merged = segments.merge(2, MERGE_MAX_SEGMENTS, MERGE_MAX_BYTES);
+            mergeTimer.since(start);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            ctx.result(gson.toJson(Map.of("segments_merged", merged, "elapsed_time", String.format("%.2fs", elapsed))));
+        } catch (IOException e) {
+            ctx.status(500).result(gson.toJson(Map.of("error", e.getMessage())));
         }
-        booksIndexed = count;
-        lastUpdate = Instant.now().toString();
-        double elapsed = (System.currentTimeMillis() - start) / 1000.0;
-        ctx.result(gson.toJson(Map.of("books_processed", count, "elapsed_time", String.format("%.2fs", elapsed))));
     }
 
+    /** Debugging view of a book's segment data in the old per-book JSON layout. */
+    private static void handleExport(Context ctx) {
+        try {
+            int bookId = Integer.parseInt(ctx.pathParam("book_id"));
+            Optional<SegmentDoc> doc = segments.read(bookId);
+            if (doc.isEmpty()) {
+                ctx.status(404).result(gson.toJson(Map.of("error", "Book not indexed")));
+                return;
+            }
+            SegmentDoc d = doc.get();
+            Map<String, Integer> terms = new LinkedHashMap<>();
+            for (int i = 0; i < d.terms.length; i++) terms.put(d.terms[i], d.freqs[i]);
+            LinkedHashMap<String, Integer> top = terms.entrySet().stream()
+                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+                    .limit(20)
+                    .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> a, LinkedHashMap::new));
+
+            Map<String, Object> out = new LinkedHashMap<>();
+            out.put("book_id", d.bookId);
+            out.put("metadata", d.metadata);
+            out.put("length", d.length);
+            out.put("top_terms", top);
+            out.put("terms", terms);
+            out.put("last_indexed", Instant.ofEpochMilli(d.version).toString());
+            ctx.result(gson.toJson(out));
+        } catch (NumberFormatException e) {
+            ctx.status(400).result(gson.toJson(Map.of("error", "Invalid book_id")));
+        } catch (IOException e) {
+            ctx.status(500).result(gson.toJson(Map.of("error", e.getMessage())));
+        }
+    }
+
+    /** Looks the book up in the datalake catalog, walking the tree only for datalakes without one. */
     private static Optional<Path> findRawFile(int bookId) {
+        try {
+            if (catalog.refresh()) return catalog.find(bookId);
+        } catch (IOException e) {
+            System.err.println("Catalog unreadable, scanning datalake: " + e.getMessage());
+        }
         try (Stream<Path> s = Files.walk(Paths.get(DATALAKE_ROOT))) {
-            return s.filter(p -> p.getFileName().toString().equals("raw.txt")
+            return s.filter(p -> isRawFile(p)
                             && p.getParent().getFileName().toString().equals(String.valueOf(bookId)))
                     .findFirst();
         } catch (IOException e) {
@@ -84,52 +261,43 @@ public class App {
     }
 
     private static Set<Path> findAllRawFiles() {
+        try {
+            if (catalog.refresh()) return catalog.all();
+        } catch (IOException e) {
+            System.err.println("Catalog unreadable, scanning datalake: " + e.getMessage());
+        }
         try (Stream<Path> s = Files.walk(Paths.get(DATALAKE_ROOT))) {
-            return s.filter(p -> p.getFileName().toString().equals("raw.txt")).collect(Collectors.toSet());
+            return s.filter(App::isRawFile).collect(Collectors.toSet());
         } catch (IOException e) {
             return Set.of();
         }
     }
 
+    /** The ingestion service stores books as raw.txt, or raw.txt.gz when compression is on. */
+    private static boolean isRawFile(Path p) {
+        String name = p.getFileName().toString();
+        return name.equals("raw.txt") || name.equals("raw.txt.gz");
+    }
+
+    /** One update pass: looks the book up again, so a coalesced pass sees the latest download. */
+    private static void indexBook(int bookId) throws IOException {
+        long start = System.nanoTime();
+        Optional<Path> rawPath = findRawFile(bookId);
+        lookupTimer.since(start);
+        if (rawPath.isEmpty()) throw new NoSuchFileException("book " + bookId);
+        processBook(bookId, rawPath.get());
+    }
+
     private static void processBook(int bookId, Path rawPath) throws IOException {
-        String text = Files.readString(rawPath, StandardCharsets.UTF_8);
-        Map<String, String> meta = extractMetadata(text);
-
-        Map<String, Long> freq = Arrays.stream(text.toLowerCase().split("[^a-záéíóúüñ]+"))
-                .filter(w -> w.length() > 3)
-                .collect(Collectors.groupingBy(w -> w, Collectors.counting()));
-
-        LinkedHashMap<String, Long> top = freq.entrySet().stream()
-                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
-                .limit(20)
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey, Map.Entry::getValue,
-                        (a, b) -> a, LinkedHashMap::new
-                ));
-
-        Path indexDir = Paths.get(DATAMART_ROOT, "indexes");
-        Files.createDirectories(indexDir);
-        Path outFile = indexDir.resolve(bookId + ".json");
-
-        Map<String, Object> out = new LinkedHashMap<>();
-        out.put("book_id", bookId);
-        out.put("metadata", meta);
-        out.put("top_terms", top);
-        out.put("last_indexed", Instant.now().toString());
-
-        Files.writeString(outFile, gson.toJson(out), StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
-    }
-
-    private static Map<String, String> extractMetadata(String text) {
-        Map<String, String> m = new HashMap<>();
-        String[] lines = text.split("\n");
-        for (String l : lines) {
-            if (l.toLowerCase().startsWith("title:")) m.put("title", l.substring(6).trim());
-            if (l.toLowerCase().startsWith("author:")) m.put("author", l.substring(7).trim());
-            if (m.size() >= 2) break;
-        }
-        if (!m.containsKey("title")) m.put("title", "Unknown");
-        if (!m.containsKey("author")) m.put("author", "Unknown");
-        return m;
+        long start = System.nanoTime();
+        byte[] raw = BookAnalyzer.readRaw(rawPath);
+        bytesRead.add(raw.length);
+        long read = System.nanoTime();
+        readTimer.record(read - start);
+        SegmentDoc doc = BookAnalyzer.analyze(bookId, raw, segments.nextVersion(bookId), POSITIONS);
+        long analyzed = System.nanoTime();
+        tokenizeTimer.record(analyzed - read);
+        segments.write(doc);
+        writeTimer.since(analyzed);
     }
 }
@@ -0,0 +1,73 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Turns a raw Gutenberg book into the {@link SegmentDoc} the indexing service writes:
+ * header metadata plus term frequencies (and positions) of every word longer than three
+ * letters. Stateless, so rebuild workers and benchmarks share it.
+ */
+public final class BookAnalyzer {
+
+    // Gutenberg metadata (Title:, Author:, ...) lives in the first few KB of the file
+    private static final int HEADER_BYTES = 64 * 1024;
+    private static final int MIN_TERM_LENGTH = 3;
+    private static final Pattern YEAR = Pattern.compile("\\b(1[4-9]\\d\\d|20\\d\\d)\\b");
+
+    private BookAnalyzer() {}
+
+    public static SegmentDoc analyze(int bookId, byte[] raw, long version, boolean positions) {
+        Map<String, String> meta = extractMetadata(new String(raw, 0, Math.min(raw.length, HEADER_BYTES), StandardCharsets.UTF_8));
+
+        TermCounter counter = new TermCounter(positions, MIN_TERM_LENGTH);
+        new Tokenizer().tokenize(ByteBuffer.wrap(raw), counter);
+        return counter.toDoc(bookId, version, meta);
+    }
+
+    /** Reads raw.txt, or gunzips raw.txt.gz. */
+    public static byte[] readRaw(Path rawPath) throws IOException {
+        if (!rawPath.getFileName().toString().endsWith(".gz")) return Files.readAllBytes(rawPath);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(rawPath), 64 * 1024)) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Reads title, author, language and year from the Gutenberg header, which ends at the
+     * "*** START OF" marker. The year is the original publication year when the header has
+     * one, otherwise the release year.
+     */
+    static Map<String, String> extractMetadata(String text) {
+        Map<String, String> m = new HashMap<>();
+        String releaseYear = null;
+        for (String l : text.split("\n")) {
+            String lower = l.toLowerCase();
+            if (lower.startsWith("*** start of")) break;
+            if (lower.startsWith("title:")) m.putIfAbsent("title", l.substring(6).trim());
+            else if (lower.startsWith("author:")) m.putIfAbsent("author", l.substring(7).trim());
+            else if (lower.startsWith("language:")) m.putIfAbsent("language", l.substring(9).trim());
+            else if (lower.startsWith("original publication:")) firstYear(l).ifPresent(y -> m.putIfAbsent("year", y));
+            else if (lower.startsWith("release date:") && releaseYear == null) releaseYear = firstYear(l).orElse(null);
+        }
+        if (!m.containsKey("year") && releaseYear != null) m.put("year", releaseYear);
+        if (!m.containsKey("title")) m.put("title", "Unknown");
+        if (!m.containsKey("author")) m.put("author", "Unknown");
+        return m;
+    }
+
+    private static Optional<String> firstYear(String line) {
+        Matcher matcher = YEAR.matcher(line);
+        return matcher.find() ? Optional.of(matcher.group()) : Optional.empty();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs book updates so that passes over the same book never overlap while different books
+ * proceed in parallel: each book maps to one of a fixed set of striped locks.
+ * <p>
+ * Requests for a book that arrive while a pass for it is still waiting for its lock join
+ * that pass instead of queueing another one, so a burst of updates for one id costs one
+ * pass (two when the burst straddles the start of a pass, since the running pass may have
+ * read the book before the latest change).
+ */
+public class BookUpdates {
+
+    @FunctionalInterface
+    public interface BookTask {
+        void run(int bookId) throws IOException;
+    }
+
+    private static final class Pass {
+        final AtomicBoolean claimed = new AtomicBoolean();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+    }
+
+    private final ReentrantLock[] stripes;
+    private final Map<Integer, Pass> queued = new ConcurrentHashMap<>();
+    private final LongAdder inProgress = new LongAdder();
+    private final LongAdder requested = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder indexed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicReference<Instant> lastUpdate = new AtomicReference<>();
+
+    public BookUpdates(int stripeCount) {
+        stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) stripes[i] = new ReentrantLock();
+    }
+
+    private ReentrantLock stripe(int bookId) {
+        return stripes[ShardedSegments.shardOf(bookId, stripes.length)];
+    }
+
+    /**
+     * Indexes a book, joining a queued pass for the same book when there is one. Blocks
+     * until the pass that covers this request has finished.
+     */
+    public void update(int bookId, BookTask task) throws IOException {
+        requested.increment();
+        Pass pass = queued.computeIfAbsent(bookId, id -> new Pass());
+        if (pass.claimed.compareAndSet(false, true)) {
+            try {
+                locked(bookId, id -> {
+                    // from here on, new requests must not join: this pass may miss their change
+                    queued.remove(bookId, pass);
+                    task.run(id);
+                });
+                pass.done.complete(null);
+            } catch (IOException | RuntimeException e) {
+                queued.remove(bookId, pass);
+                pass.done.completeExceptionally(e);
+                throw e;
+            }
+            return;
+        }
+
+        coalesced.increment();
+        try {
+            pass.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for book " + bookId, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /** Runs one pass over a book under its lock, without coalescing (used by rebuilds). */
+    public void locked(int bookId, BookTask task) throws IOException {
+        ReentrantLock lock = stripe(bookId);
+        lock.lock();
+        inProgress.increment();
+        try {
+            task.run(bookId);
+            indexed.increment();
+            lastUpdate.set(Instant.now());
+        } catch (IOException | RuntimeException e) {
+            failed.increment();
+            throw e;
+        } finally {
+            inProgress.decrement();
+            lock.unlock();
+        }
+    }
+
+    /** When the last pass finished, null before the first one. */
+    public Instant lastUpdate() {
+        return lastUpdate.get();
+    }
+
+    /** Passes waiting for their book's lock. */
+    public int queueDepth() {
+        return queued.size();
+    }
+
+    /** Live counters for /status. */
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("queue_depth", queueDepth());
+        m.put("in_progress", inProgress.sum());
+        m.put("requested", requested.sum());
+        m.put("coalesced", coalesced.sum());
+        m.put("indexed", indexed.sum());
+        m.put("failed", failed.sum());
+        return m;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Read-only view of the catalog the ingestion service keeps in the datalake root
+ * ({@code CATALOG} snapshot plus {@code CATALOG.log}; see {@code com.example.ingestion.Catalog}
+ * for the format). Lookups only re-read what was appended to the log since the last call;
+ * the whole catalog is reloaded when the snapshot is rewritten or the log replaced.
+ * <p>
+ * A size check alone cannot tell a new log from the old one once the new log has grown past
+ * the old offset, and on Linux neither can the log's own attributes: a deleted log's inode
+ * is reused at once and the JDK reports its modification time as the creation time. But
+ * compaction always renames a new snapshot into place before it drops the log, so a log
+ * read while the snapshot (including its inode) stays unchanged is the log that belongs to it.
+ */
+public class DatalakeCatalog {
+
+    static final String SNAPSHOT = "CATALOG";
+    static final String LOG = "CATALOG.log";
+
+    private final Path root;
+    private final Map<Integer, Path> paths = new HashMap<>();
+    private Object catalogKey;
+    private long logOffset;
+
+    public DatalakeCatalog(Path root) {
+        this.root = root;
+    }
+
+    /** Catches up with the files on disk; false when the datalake has no catalog (yet). */
+    public synchronized boolean refresh() throws IOException {
+        Path snapshot = root.resolve(SNAPSHOT);
+        Path log = root.resolve(LOG);
+        // the log first: a newer log than the snapshot that is stamped next cannot exist
+        BasicFileAttributes logAttrs = attributes(log);
+        BasicFileAttributes snapshotAttrs = attributes(snapshot);
+        long logSize = logAttrs == null ? 0 : logAttrs.size();
+        if (snapshotAttrs == null && logSize == 0) {
+            paths.clear();
+            catalogKey = null;
+            logOffset = 0;
+            return false;
+        }
+
+        Object key = Arrays.asList(stamp(snapshotAttrs), logAttrs == null ? null : logAttrs.fileKey());
+        if (!key.equals(catalogKey) || logSize < logOffset) {
+            paths.clear();
+            logOffset = 0;
+            if (snapshotAttrs != null) apply(Files.readAllBytes(snapshot), 0, -1);
+            catalogKey = key;
+            if (logAttrs != null && snapshotAttrs != null
+                    && logAttrs.lastModifiedTime().compareTo(snapshotAttrs.lastModifiedTime()) < 0) {
+                // a log last written before its snapshot is the one just folded into it and about
+                // to be deleted; skip it, and check again next time
+                catalogKey = null;
+                return true;
+            }
+        }
+        if (logSize > logOffset) {
+            try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ)) {
+                ByteBuffer buf = ByteBuffer.allocate((int) (logSize - logOffset));
+                while (buf.hasRemaining() && ch.read(buf, logOffset + buf.position()) > 0) {}
+                // a compaction between the stat and the read may have handed us another log;
+                // then the snapshot has changed too, and the next call reloads everything
+                if (Objects.equals(stamp(attributes(snapshot)), stamp(snapshotAttrs))) {
+                    logOffset += apply(buf.array(), 0, buf.position());
+                }
+            } catch (NoSuchFileException ignored) {
+                // compacted away meanwhile; the new snapshot is picked up next time
+            }
+        }
+        return true;
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /** Changes whenever the snapshot is rewritten; a renamed-in file has a new file key. */
+    private static List<Object> stamp(BasicFileAttributes a) {
+        return a == null ? null : Arrays.asList(a.fileKey(), a.lastModifiedTime(), a.size());
+    }
+
+    /** Applies every complete line in {@code data[from, to)}; returns the bytes consumed. */
+    private int apply(byte[] data, int from, int to) {
+        if (to < 0) to = data.length;
+        int start = from;
+        for (int i = from; i < to; i++) {
+            if (data[i] != '\n') continue;
+            String[] f = new String(data, start, i - start, StandardCharsets.UTF_8).split("\t");
+            try {
+                int id = Integer.parseInt(f[0]);
+                if (f.length == 2 && f[1].equals("-")) paths.remove(id);
+                else if (f.length == 5) paths.put(id, root.resolve(f[1]));
+            } catch (NumberFormatException ignored) {}
+            start = i + 1;
+        }
+        return start - from;
+    }
+
+    public synchronized Optional<Path> find(int bookId) {
+        return Optional.ofNullable(paths.get(bookId));
+    }
+
+    public synchronized Set<Path> all() {
+        return new HashSet<>(paths.values());
+    }
+}
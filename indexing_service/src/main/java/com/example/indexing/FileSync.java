@@ -0,0 +1,34 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * fsync for the files and directories of the segment store. A rename is only durable once
+ * the directory holding it is synced: without that, a crash can bring back the old name
+ * (or no name at all) even though the renamed file's data is on disk.
+ */
+final class FileSync {
+
+    private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+    private FileSync() {}
+
+    /** Forces a file's data and metadata to disk. */
+    static void force(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+    }
+
+    /** Makes the creations, renames and deletions in {@code dir} durable. */
+    static void directory(Path dir) throws IOException {
+        // Windows cannot open a directory as a channel; NTFS journals renames itself
+        if (WINDOWS) return;
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        }
+    }
+}
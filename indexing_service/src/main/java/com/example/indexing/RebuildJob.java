@@ -0,0 +1,158 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous re-indexing of every book in the datalake.
+ * Books are indexed on a shared work-stealing pool; a semaphore over raw file sizes
+ * bounds how many bytes of text can be in flight at once so big books cannot exhaust the heap.
+ */
+public class RebuildJob implements Runnable {
+
+    @FunctionalInterface
+    public interface BookIndexer {
+        void index(int bookId, Path rawPath) throws IOException;
+    }
+
+    private static final int MAX_ERRORS = 20;
+
+    private final String id;
+    private final Supplier<Set<Path>> rawFiles;
+    private final BookIndexer indexer;
+    private final ExecutorService pool;
+    private final Semaphore inFlightKb;
+    private final int maxPermits;
+
+    private volatile String status = "queued";
+    private volatile int total = -1;
+    private final AtomicLong done = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong bytesDone = new AtomicLong();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private final String startedAt = Instant.now().toString();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+
+    public RebuildJob(String id, Supplier<Set<Path>> rawFiles, BookIndexer indexer,
+                      ExecutorService pool, long maxInFlightBytes) {
+        this.id = id;
+        this.rawFiles = rawFiles;
+        this.indexer = indexer;
+        this.pool = pool;
+        this.maxPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxInFlightBytes / 1024));
+        this.inFlightKb = new Semaphore(maxPermits);
+    }
+
+    public String id() { return id; }
+
+    public boolean finished() {
+        return endNanos != 0;
+    }
+
+    /** {@link System#nanoTime()} when the job finished, or 0 while it is queued or running. */
+    public long finishedNanos() {
+        return endNanos;
+    }
+
+    public long done() { return done.get(); }
+
+    @Override
+    public void run() {
+        status = "listing";
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            Set<Path> raws = rawFiles.get();
+            total = raws.size();
+            status = "running";
+            for (Path p : raws) {
+                int permits = permitsFor(p);
+                inFlightKb.acquire(permits);
+                try {
+                    futures.add(pool.submit(() -> indexOne(p, permits)));
+                } catch (RejectedExecutionException e) {
+                    inFlightKb.release(permits);
+                    fail(p, e);
+                }
+            }
+            for (Future<?> f : futures) f.get();
+            status = "completed";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            status = "cancelled";
+        } catch (ExecutionException | RuntimeException e) {
+            // a listing failure, or an indexing task that escaped its own error handling
+            errors.add(String.valueOf(e instanceof ExecutionException ? e.getCause() : e));
+            System.err.println("Rebuild " + id + " failed: " + e);
+            status = "failed";
+        } finally {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private void indexOne(Path p, int permits) {
+        try {
+            String name = p.getParent().getFileName().toString();
+            indexer.index(Integer.parseInt(name), p);
+            done.incrementAndGet();
+            bytesDone.addAndGet(sizeOf(p));
+        } catch (Exception e) {
+            fail(p, e);
+        } finally {
+            inFlightKb.release(permits);
+        }
+    }
+
+    private void fail(Path p, Exception e) {
+        failed.incrementAndGet();
+        if (errors.size() < MAX_ERRORS) errors.add(p + ": " + e);
+        System.err.println("Rebuild " + id + " failed on " + p + ": " + e);
+    }
+
+    private int permitsFor(Path p) {
+        long kb = sizeOf(p) / 1024 + 1;
+        // gzipped text inflates roughly 3x once read into memory
+        if (p.getFileName().toString().endsWith(".gz")) kb *= 3;
+        return (int) Math.min(kb, maxPermits);
+    }
+
+    private static long sizeOf(Path p) {
+        try {
+            return Files.size(p);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public Map<String, Object> progress() {
+        long now = finished() ? endNanos : System.nanoTime();
+        double elapsed = Math.max(1e-9, (now - startNanos) / 1e9);
+        long ok = done.get();
+        long ko = failed.get();
+        double mbPerSec = bytesDone.get() / 1048576.0 / elapsed;
+        double booksPerSec = (ok + ko) / elapsed;
+
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("job_id", id);
+        m.put("status", status);
+        m.put("started_at", startedAt);
+        m.put("books_total", total);
+        m.put("books_done", ok);
+        m.put("books_failed", ko);
+        m.put("elapsed_time", String.format("%.2fs", elapsed));
+        m.put("throughput_mb_s", Math.round(mbPerSec * 100) / 100.0);
+        if (!finished() && total >= 0 && booksPerSec > 0) {
+            m.put("eta_s", Math.round((total - ok - ko) / booksPerSec));
+        }
+        if (!errors.isEmpty()) m.put("errors", new ArrayList<>(errors));
+        return m;
+    }
+}
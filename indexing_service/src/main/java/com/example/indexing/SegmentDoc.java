@@ -0,0 +1,37 @@
+package com.example.indexing;
+
+import java.util.Map;
+
+/**
+ * Forward view of one indexed book: its sorted vocabulary with frequencies and,
+ * when recorded, the token positions of every term.
+ */
+public class SegmentDoc {
+
+    final int bookId;
+    final long version;
+    final int length;
+    final Map<String, String> metadata;
+    final String[] terms;
+    final int[] freqs;
+    final int[][] positions;
+
+    public SegmentDoc(int bookId, long version, int length, Map<String, String> metadata,
+                      String[] terms, int[] freqs, int[][] positions) {
+        this.bookId = bookId;
+        this.version = version;
+        this.length = length;
+        this.metadata = metadata;
+        this.terms = terms;
+        this.freqs = freqs;
+        this.positions = positions;
+    }
+
+    public int bookId() { return bookId; }
+
+    public int length() { return length; }
+
+    public Map<String, String> metadata() { return metadata; }
+
+    public int termCount() { return terms.length; }
+}
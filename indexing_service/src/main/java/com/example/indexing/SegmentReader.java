@@ -0,0 +1,173 @@
+package com.example.indexing;
+
+import com.example.segment.BlockPacking;
+import com.example.segment.SegmentFormat;
+import com.example.segment.SegmentHeader;
+import com.example.segment.TermReader;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads back a segment written by {@link SegmentWriter}, in either version. Used by the merge
+ * step and the JSON export, which both need whole documents rather than single posting lists.
+ */
+public class SegmentReader {
+
+    private final Path path;
+    private final MappedByteBuffer buf;
+    private final SegmentHeader header;
+    private final boolean positions;
+    private final boolean v1;
+    private final int docCount;
+    private final int termCount;
+
+    private SegmentReader(Path path, MappedByteBuffer buf) throws IOException {
+        this.path = path;
+        this.buf = buf;
+        this.header = SegmentHeader.read(buf, path);
+        this.v1 = header.v1();
+        this.positions = header.positions;
+        this.docCount = header.docCount;
+        this.termCount = header.termCount;
+    }
+
+    public static SegmentReader open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            SegmentHeader.checkSize(ch.size(), path);
+            return new SegmentReader(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public Path path() { return path; }
+
+    public boolean hasPositions() { return positions; }
+
+    public int version() { return header.version; }
+
+    public int docCount() { return docCount; }
+
+    public int bookId(int ord) {
+        return header.bookId(ord);
+    }
+
+    public int length(int ord) {
+        return header.length(ord);
+    }
+
+    public long version(int ord) {
+        return header.version(ord);
+    }
+
+    public Map<String, String> metadata(int ord) {
+        return header.metadata(ord);
+    }
+
+    /**
+     * Rebuilds the forward view of the documents accepted by {@code filter}
+     * (indexed by ordinal) by walking every posting list once.
+     */
+    public List<SegmentDoc> readDocs(boolean[] filter) {
+        List<List<String>> terms = new ArrayList<>(docCount);
+        List<IntList> freqs = new ArrayList<>(docCount);
+        List<List<int[]>> pos = new ArrayList<>(docCount);
+        for (int d = 0; d < docCount; d++) {
+            boolean keep = filter == null || filter[d];
+            terms.add(keep ? new ArrayList<>() : null);
+            freqs.add(keep ? new IntList() : null);
+            pos.add(keep && positions ? new ArrayList<>() : null);
+        }
+
+        int[] cursor = new int[1];
+        int[] ords = new int[BlockPacking.BLOCK];
+        int[] docFreqs = new int[BlockPacking.BLOCK];
+        int[] words = new int[BlockPacking.WORDS];
+        TermReader dictionary = new TermReader(buf, header, 0);
+        for (int t = 0; t < termCount; t++) {
+            dictionary.next();
+            String term = new String(dictionary.bytes, 0, dictionary.length, StandardCharsets.UTF_8);
+            int df = header.docFreq(t);
+            int start = header.postingsStart(t);
+
+            int blocks = v1 ? 0 : df / BlockPacking.BLOCK;
+            cursor[0] = start + 8 * blocks;
+            int ord = 0;
+            for (int done = 0; done < df; ) {
+                int n;
+                if (done < blocks * BlockPacking.BLOCK) {
+                    n = BlockPacking.BLOCK;
+                    int minGap = readVInt(cursor);
+                    int gapBits = buf.get(cursor[0]++);
+                    int minFreq = readVInt(cursor);
+                    int freqBits = buf.get(cursor[0]++);
+                    BlockPacking.unpack(buf, cursor[0], gapBits, words, ords);
+                    cursor[0] += 16 * gapBits;
+                    BlockPacking.unpack(buf, cursor[0], freqBits, words, docFreqs);
+                    cursor[0] += 16 * freqBits;
+                    for (int i = 0; i < n; i++) {
+                        ords[i] = ord += ords[i] + minGap;
+                        docFreqs[i] += minFreq;
+                    }
+                } else if (!v1) {
+                    n = df - done;
+                    for (int i = 0; i < n; i++) {
+                        ords[i] = ord += readVInt(cursor);
+                        docFreqs[i] = readVInt(cursor);
+                    }
+                } else {
+                    // version 1 interleaves positions with each posting: one doc at a time
+                    n = 1;
+                    ords[0] = ord += readVInt(cursor);
+                    docFreqs[0] = readVInt(cursor);
+                }
+                // positions follow the docs they belong to
+                for (int i = 0; i < n; i++) {
+                    int freq = docFreqs[i];
+                    int[] p = positions ? new int[freq] : null;
+                    if (positions) {
+                        int prev = 0;
+                        for (int j = 0; j < freq; j++) p[j] = prev += readVInt(cursor);
+                    }
+                    int d = ords[i];
+                    if (terms.get(d) == null) continue;
+                    terms.get(d).add(term);
+                    freqs.get(d).add(freq);
+                    if (p != null) pos.get(d).add(p);
+                }
+                done += n;
+            }
+        }
+
+        List<SegmentDoc> docs = new ArrayList<>();
+        for (int d = 0; d < docCount; d++) {
+            if (terms.get(d) == null) continue;
+            docs.add(new SegmentDoc(bookId(d), version(d), length(d), metadata(d),
+                    terms.get(d).toArray(new String[0]), freqs.get(d).toArray(),
+                    positions ? pos.get(d).toArray(new int[0][]) : null));
+        }
+        return docs;
+    }
+
+    private int readVInt(int[] pos) {
+        return SegmentFormat.readVInt(buf, pos);
+    }
+
+    private static final class IntList {
+        int[] values = new int[8];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.example.indexing;
+
+import com.example.segment.SegmentFormat;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Owns the segment directory of the datamart.
+ * <p>
+ * Every indexed book is first written as its own small delta segment named
+ * {@code <bookId>-<version>.seg}; {@link #merge} later folds segments of similar size into
+ * {@code merged-<version>.seg}. Segment files are immutable. Which of them are live is
+ * decided only by the manifest: {@code MANIFEST}, a snapshot replaced through a rename,
+ * <pre>
+ *   generation &lt;n&gt;
+ *   segment &lt;file&gt;                 live segment
+ *   tombstone &lt;file&gt; &lt;bookId&gt;     the book's copy in that segment is superseded
+ *   obsolete &lt;file&gt; &lt;millis&gt;      dropped from the index, deleted once older than RETAIN_MILLIS
+ * </pre>
+ * plus {@code MANIFEST.log}, the changes committed since: blocks of {@code segment},
+ * {@code tombstone}, {@code drop <file> <millis>} and {@code sweep <file>} records, each
+ * closed by {@code commit <generation>}. A block without its commit line was never
+ * committed. The log is folded into a new snapshot every {@link #COMPACT_EVERY} records,
+ * so a commit costs one small append however many segments there are. Every commit is
+ * forced to disk before the write-ahead log records it, and the segments it names are
+ * already durable, renames included.
+ * <p>
+ * Re-indexing a book writes a new delta and tombstones the old copy instead of rewriting
+ * the segment holding it. Readers pin one manifest generation; obsolete files are kept
+ * for a while so a reader that has just read an older generation can still open them.
+ * Book updates are bracketed in a {@link WriteAheadLog} so that a crash between writing a
+ * segment and committing it is redone on the next start.
+ */
+public class SegmentStore {
+
+    static final String SUFFIX = ".seg";
+    static final String MANIFEST = "MANIFEST";
+    static final String MANIFEST_LOG = "MANIFEST.log";
+    static final int COMPACT_EVERY = 10_000;
+    static final String WAL = "WAL";
+    static final String LEGACY_GENERATION = "GENERATION";
+    static final long RETAIN_MILLIS = 60_000;
+    /** Segments smaller than this all count as the same size when picking merges. */
+    static final long MERGE_FLOOR_BYTES = 1 << 20;
+
+    private final Path dir;
+    private final boolean positions;
+    private final WriteAheadLog wal;
+    private final AtomicLong lastVersion = new AtomicLong();
+    private final Object mergeLock = new Object();
+
+    // manifest state, guarded by this
+    private long generation;
+    private final Set<String> segments = new LinkedHashSet<>();
+    private final Map<String, Set<Integer>> tombstones = new HashMap<>();
+    private final Map<String, Long> obsolete = new HashMap<>();
+    private final Map<String, Integer> liveDocs = new HashMap<>();
+    private final StringBuilder uncommitted = new StringBuilder();
+    private int logRecords;
+    private FileChannel log;
+
+    // where the live copy of each book is
+    private final Map<Integer, Copy> location = new ConcurrentHashMap<>();
+    private Set<Integer> pending = Set.of();
+
+    private static final class Copy {
+        final String segment;
+        final long version;
+
+        Copy(String segment, long version) {
+            this.segment = segment;
+            this.version = version;
+        }
+    }
+
+    public SegmentStore(Path dir, boolean positions) {
+        this.dir = dir;
+        this.positions = positions;
+        this.wal = new WriteAheadLog(dir.resolve(WAL));
+    }
+
+    /**
+     * Loads the manifest (or adopts every segment of a directory written before manifests
+     * existed), deletes files no commit refers to and replays the write-ahead log.
+     */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(dir);
+        Path manifest = dir.resolve(MANIFEST);
+        if (Files.exists(manifest) || Files.exists(dir.resolve(MANIFEST_LOG))) {
+            readManifest();
+        } else {
+            try (Stream<Path> s = Files.list(dir)) {
+                s.map(p -> p.getFileName().toString()).filter(n -> n.endsWith(SUFFIX)).sorted().forEach(segments::add);
+            }
+            try {
+                generation = Long.parseLong(Files.readString(dir.resolve(LEGACY_GENERATION)).trim());
+            } catch (NoSuchFileException | NumberFormatException ignored) {}
+        }
+
+        for (String name : new ArrayList<>(segments)) {
+            SegmentReader r;
+            try {
+                r = SegmentReader.open(dir.resolve(name));
+            } catch (IOException e) {
+                System.err.println("Dropping unreadable segment " + name + ": " + e.getMessage());
+                segments.remove(name);
+                tombstones.remove(name);
+                continue;
+            }
+            Set<Integer> dead = tombstones.getOrDefault(name, Set.of());
+            int live = 0;
+            for (int d = 0; d < r.docCount(); d++) {
+                lastVersion.accumulateAndGet(r.version(d), Math::max);
+                if (!dead.contains(r.bookId(d))) live++;
+            }
+            liveDocs.put(name, live);
+            if (live == 0) {
+                liveDocs.remove(name);
+                record("drop", name, String.valueOf(System.currentTimeMillis()));
+                continue;
+            }
+            // copies of one book in several segments: the newest version wins
+            for (int d = 0; d < r.docCount(); d++) {
+                int bookId = r.bookId(d);
+                long v = r.version(d);
+                if (dead.contains(bookId)) continue;
+                Copy cur = location.get(bookId);
+                if (cur == null || cur.version < v) {
+                    if (cur != null) retire(cur.segment, bookId);
+                    location.put(bookId, new Copy(name, v));
+                } else {
+                    retire(name, bookId);
+                }
+            }
+        }
+
+        // segments written but never committed, and leftovers of interrupted writes
+        try (Stream<Path> s = Files.list(dir)) {
+            for (Path p : s.collect(Collectors.toList())) {
+                String n = p.getFileName().toString();
+                boolean orphan = n.endsWith(SUFFIX) && !segments.contains(n) && !obsolete.containsKey(n);
+                if (orphan || n.endsWith(SUFFIX + ".tmp")) Files.deleteIfExists(p);
+            }
+        }
+        pending = wal.recover();
+        uncommitted.setLength(0); // open() rebuilt the whole state, the snapshot below has it
+        generation++;
+        compact();
+    }
+
+    private void readManifest() throws IOException {
+        Path snapshot = dir.resolve(MANIFEST);
+        if (Files.exists(snapshot)) {
+            for (String line : Files.readAllLines(snapshot, StandardCharsets.UTF_8)) {
+                String[] f = line.split(" ");
+                switch (f[0]) {
+                    case "generation": generation = Long.parseLong(f[1]); break;
+                    case "segment": segments.add(f[1]); break;
+                    case "tombstone": tombstones.computeIfAbsent(f[1], k -> new HashSet<>()).add(Integer.parseInt(f[2])); break;
+                    case "obsolete": obsolete.put(f[1], Long.parseLong(f[2])); break;
+                    default: break;
+                }
+            }
+        }
+        Path log = dir.resolve(MANIFEST_LOG);
+        if (!Files.exists(log)) return;
+        List<String[]> block = new ArrayList<>();
+        for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+            String[] f = line.split(" ");
+            if (!f[0].equals("commit")) {
+                block.add(f);
+                continue;
+            }
+            long g = Long.parseLong(f[1]);
+            if (g > generation) { // older blocks are already in the snapshot
+                for (String[] r : block) apply(r);
+                generation = g;
+            }
+            block.clear();
+        }
+        // a trailing block without its commit line is dropped
+    }
+
+    /** Applies one manifest log record to the in-memory state. */
+    private void apply(String[] r) {
+        switch (r[0]) {
+            case "segment": segments.add(r[1]); break;
+            case "tombstone": tombstones.computeIfAbsent(r[1], k -> new HashSet<>()).add(Integer.parseInt(r[2])); break;
+            case "drop":
+                segments.remove(r[1]);
+                tombstones.remove(r[1]);
+                obsolete.put(r[1], Long.parseLong(r[2]));
+                break;
+            case "sweep": obsolete.remove(r[1]); break;
+            default: break;
+        }
+    }
+
+    /** Applies a change and queues its record for the next commit. */
+    private void record(String... r) {
+        apply(r);
+        uncommitted.append(String.join(" ", r)).append('\n');
+        logRecords++;
+    }
+
+    /** Books whose update was interrupted by a crash; the caller should index them again. */
+    public Set<Integer> pendingBooks() {
+        return pending;
+    }
+
+    /** Drops a pending book that can no longer be indexed (its raw file is gone, say). */
+    public void abandon(int bookId) throws IOException {
+        wal.resolve(bookId);
+    }
+
+    /** Strictly increasing, roughly wall-clock, version numbers. */
+    public long nextVersion() {
+        return lastVersion.accumulateAndGet(System.currentTimeMillis(), (last, now) -> Math.max(last + 1, now));
+    }
+
+    public boolean positions() { return positions; }
+
+    /** Bumped by every commit; readers use it to notice updates. */
+    public synchronized long generation() {
+        return generation;
+    }
+
+    public boolean isIndexed(int bookId) {
+        return location.containsKey(bookId);
+    }
+
+    public Set<Integer> indexedBooks() {
+        return Collections.unmodifiableSet(location.keySet());
+    }
+
+    public void write(SegmentDoc doc) throws IOException {
+        wal.begin(doc.bookId, doc.version);
+        String name = doc.bookId + "-" + doc.version + SUFFIX;
+        SegmentWriter.write(dir.resolve(name), List.of(doc), positions);
+        synchronized (this) {
+            record("segment", name);
+            liveDocs.put(name, 1);
+            Copy cur = location.get(doc.bookId);
+            if (cur == null || cur.version < doc.version) {
+                if (cur != null) retire(cur.segment, doc.bookId);
+                location.put(doc.bookId, new Copy(name, doc.version));
+            } else {
+                retire(name, doc.bookId); // a newer update of the same book committed first
+            }
+            commit();
+        }
+        wal.commit(doc.bookId, doc.version);
+    }
+
+    /** Tombstones a book's copy in a segment, dropping the segment once nothing in it is live. */
+    private void retire(String segment, int bookId) {
+        int live = liveDocs.merge(segment, -1, Integer::sum);
+        if (live > 0) {
+            record("tombstone", segment, String.valueOf(bookId));
+            return;
+        }
+        liveDocs.remove(segment);
+        record("drop", segment, String.valueOf(System.currentTimeMillis()));
+    }
+
+    /** Publishes the changes recorded since the last commit as a new generation. */
+    private void commit() throws IOException {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Long> e : new ArrayList<>(obsolete.entrySet())) {
+            if (now - e.getValue() < RETAIN_MILLIS) continue;
+            Files.deleteIfExists(dir.resolve(e.getKey()));
+            record("sweep", e.getKey());
+        }
+
+        generation++;
+        if (logRecords >= COMPACT_EVERY) {
+            uncommitted.setLength(0);
+            compact();
+            return;
+        }
+        uncommitted.append("commit ").append(generation).append('\n');
+        if (log == null) {
+            log = FileChannel.open(dir.resolve(MANIFEST_LOG), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+            FileSync.directory(dir);
+        }
+        ByteBuffer buf = StandardCharsets.UTF_8.encode(uncommitted.toString());
+        while (buf.hasRemaining()) log.write(buf);
+        log.force(false);
+        uncommitted.setLength(0);
+    }
+
+    /** Writes the whole state as a new snapshot and starts an empty log. */
+    private void compact() throws IOException {
+        Path tmp = dir.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write("generation " + generation + "\n");
+            for (String s : segments) w.write("segment " + s + "\n");
+            for (Map.Entry<String, Set<Integer>> e : tombstones.entrySet()) {
+                for (int bookId : e.getValue()) w.write("tombstone " + e.getKey() + " " + bookId + "\n");
+            }
+            for (Map.Entry<String, Long> e : obsolete.entrySet()) w.write("obsolete " + e.getKey() + " " + e.getValue() + "\n");
+        }
+        FileSync.force(tmp);
+        Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the log may only go once the new snapshot is sure to be the one found after a crash
+        FileSync.directory(dir);
+        if (log != null) {
+            log.close();
+            log = null;
+        }
+        // log blocks up to this generation are skipped on replay, so a crash here loses nothing
+        Files.deleteIfExists(dir.resolve(MANIFEST_LOG));
+        logRecords = 0;
+    }
+
+    /** Live segment files, per the manifest. */
+    public synchronized List<Path> list() {
+        return segments.stream().map(dir::resolve).collect(Collectors.toList());
+    }
+
+    /**
+     * Runs one tiered merge. Live segments are grouped into size tiers, each
+     * {@code minInputs} times as large as the one below, starting with everything under
+     * {@link #MERGE_FLOOR_BYTES}. Up to {@code maxInputs} segments of the smallest tier holding
+     * at least {@code minInputs}, smallest first and together at most {@code maxMergeBytes},
+     * are merged into one, which lands a tier higher and is not picked again until enough
+     * segments of its size have accumulated. Inputs are read and added to the writer one at a
+     * time; tombstoned and superseded copies are dropped. Books updated while the merge runs
+     * stay tombstoned in the merged segment.
+     *
+     * @return the number of segments merged, 0 when there was nothing to do
+     */
+    public int merge(int minInputs, int maxInputs, long maxMergeBytes) throws IOException {
+        synchronized (mergeLock) {
+            Map<String, Set<Integer>> dead = new HashMap<>();
+            List<String> inputs;
+            synchronized (this) {
+                inputs = pickMerge(minInputs, maxInputs, Math.min(maxMergeBytes, SegmentFormat.MAX_SEGMENT_BYTES));
+                if (inputs.isEmpty()) return 0;
+                for (String s : inputs) dead.put(s, new HashSet<>(tombstones.getOrDefault(s, Set.of())));
+            }
+
+            // the newest live copy of each book among the inputs, from their doc tables alone
+            Map<Integer, Long> newest = new HashMap<>();
+            for (String s : inputs) {
+                SegmentReader r = SegmentReader.open(dir.resolve(s));
+                for (int d = 0; d < r.docCount(); d++) {
+                    if (!dead.get(s).contains(r.bookId(d))) newest.merge(r.bookId(d), r.version(d), Math::max);
+                }
+            }
+
+            String name = newest.isEmpty() ? null : "merged-" + nextVersion() + SUFFIX;
+            if (name != null) {
+                SegmentWriter writer = new SegmentWriter(positions, SegmentFormat.VERSION);
+                Set<Integer> added = new HashSet<>();
+                for (String s : inputs) {
+                    SegmentReader r = SegmentReader.open(dir.resolve(s));
+                    boolean[] keep = new boolean[r.docCount()];
+                    for (int d = 0; d < keep.length; d++) {
+                        int bookId = r.bookId(d);
+                        keep[d] = !dead.get(s).contains(bookId) && newest.get(bookId) == r.version(d) && added.add(bookId);
+                    }
+                    for (SegmentDoc doc : r.readDocs(keep)) writer.add(doc);
+                }
+                writer.finish(dir.resolve(name));
+            }
+
+            synchronized (this) {
+                String now = String.valueOf(System.currentTimeMillis());
+                for (String s : inputs) {
+                    // an input emptied by updates during the merge was dropped already
+                    if (liveDocs.remove(s) != null) record("drop", s, now);
+                }
+                if (name != null) {
+                    record("segment", name);
+                    liveDocs.put(name, newest.size());
+                }
+                Set<String> merged = new HashSet<>(inputs);
+                for (Map.Entry<Integer, Long> e : newest.entrySet()) {
+                    Copy cur = location.get(e.getKey());
+                    if (cur != null && merged.contains(cur.segment) && cur.version == e.getValue()) {
+                        location.put(e.getKey(), new Copy(name, e.getValue()));
+                    } else {
+                        retire(name, e.getKey());
+                    }
+                }
+                commit();
+            }
+            return inputs.size();
+        }
+    }
+
+    /** The inputs of the next merge, empty when no tier has enough segments; see {@link #merge}. */
+    private List<String> pickMerge(int minInputs, int maxInputs, long maxMergeBytes) throws IOException {
+        minInputs = Math.max(2, minInputs); // a merge of one segment would be picked again forever
+        double factor = Math.log(minInputs);
+        TreeMap<Integer, List<Map.Entry<String, Long>>> tiers = new TreeMap<>();
+        for (String s : segments) {
+            long size;
+            try {
+                size = Files.size(dir.resolve(s));
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            int tier = size < MERGE_FLOOR_BYTES ? 0 : 1 + (int) (Math.log((double) size / MERGE_FLOOR_BYTES) / factor);
+            tiers.computeIfAbsent(tier, k -> new ArrayList<>()).add(Map.entry(s, size));
+        }
+        for (List<Map.Entry<String, Long>> tier : tiers.values()) {
+            if (tier.size() < minInputs) continue;
+            tier.sort(Map.Entry.comparingByValue());
+            List<String> picked = new ArrayList<>();
+            long bytes = 0;
+            for (Map.Entry<String, Long> e : tier) {
+                if (picked.size() == maxInputs || bytes + e.getValue() > maxMergeBytes) break;
+                picked.add(e.getKey());
+                bytes += e.getValue();
+            }
+            if (picked.size() >= minInputs) return picked;
+        }
+        return List.of();
+    }
+
+    /** Live copy of a book, read back from the segment holding it. */
+    public Optional<SegmentDoc> read(int bookId) throws IOException {
+        Copy copy = location.get(bookId);
+        if (copy == null) return Optional.empty();
+        SegmentReader r = SegmentReader.open(dir.resolve(copy.segment));
+        boolean[] keep = new boolean[r.docCount()];
+        for (int d = 0; d < keep.length; d++) keep[d] = r.bookId(d) == bookId && r.version(d) == copy.version;
+        List<SegmentDoc> docs = r.readDocs(keep);
+        return docs.isEmpty() ? Optional.empty() : Optional.of(docs.get(0));
+    }
+}
@@ -0,0 +1,437 @@
+package com.example.indexing;
+
+import com.example.metrics.Metrics;
+import com.example.segment.BlockPacking;
+import com.example.segment.SegmentFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes datamart segments, in the layout documented by {@link SegmentFormat}.
+ * <p>
+ * Books are added one at a time, in any order, and folded into per-term posting lists right
+ * away, so a writer holds the postings of a segment but none of the {@link SegmentDoc}s
+ * added to it: a merge streams its inputs through one writer. {@link #finish} numbers the
+ * books by book id, encodes every list and writes the file. A writer writes one segment.
+ */
+public class SegmentWriter {
+
+    private static final LongAdder bytesWritten = Metrics.counter("segment_bytes_written_total",
+            "Bytes written to segment files, merges included.");
+
+    private final short version;
+    private boolean positions;
+    // per book, in the order they were added
+    private final IntList bookIds = new IntList();
+    private final IntList lengths = new IntList();
+    private final LongList versions = new LongList();
+    private final IntList metaStarts = new IntList();
+    private final ByteBuf meta = new ByteBuf(1024);
+    // term -> per book holding it: the book's index above, its freq, then its positions if kept
+    private final Map<String, IntList> inverted = new HashMap<>();
+
+    /** @param version {@link SegmentFormat#VERSION}, or {@link SegmentFormat#VERSION_1} for the previous format */
+    public SegmentWriter(boolean positions, short version) {
+        if (version != SegmentFormat.VERSION && version != SegmentFormat.VERSION_1) {
+            throw new IllegalArgumentException("Unknown segment version " + version);
+        }
+        this.version = version;
+        this.positions = positions;
+    }
+
+    public static void write(Path file, List<SegmentDoc> docs, boolean positions) throws IOException {
+        write(file, docs, positions, SegmentFormat.VERSION);
+    }
+
+    /** @param version {@link SegmentFormat#VERSION}, or {@link SegmentFormat#VERSION_1} for the previous format */
+    public static void write(Path file, List<SegmentDoc> docs, boolean positions, short version) throws IOException {
+        SegmentWriter w = new SegmentWriter(positions, version);
+        for (SegmentDoc d : docs) w.add(d);
+        w.finish(file);
+    }
+
+    public int docCount() { return bookIds.size; }
+
+    /** Adds a book. A book without positions leaves them out of the whole segment. */
+    public void add(SegmentDoc doc) {
+        if (positions && doc.positions == null) dropPositions();
+        int index = bookIds.size;
+        bookIds.add(doc.bookId);
+        lengths.add(doc.length);
+        versions.add(doc.version);
+        metaStarts.add(meta.size());
+        meta.putVInt(doc.metadata.size());
+        for (Map.Entry<String, String> e : doc.metadata.entrySet()) {
+            meta.putString(e.getKey());
+            meta.putString(e.getValue());
+        }
+        for (int t = 0; t < doc.terms.length; t++) {
+            IntList list = inverted.computeIfAbsent(doc.terms[t], k -> new IntList());
+            list.add(index);
+            list.add(doc.freqs[t]);
+            if (positions) list.addAll(doc.positions[t]);
+        }
+    }
+
+    private void dropPositions() {
+        positions = false;
+        for (IntList list : inverted.values()) {
+            int n = 0;
+            for (int i = 0; i < list.size; i += 2 + list.values[i + 1]) {
+                list.values[n++] = list.values[i];
+                list.values[n++] = list.values[i + 1];
+            }
+            list.size = n;
+        }
+    }
+
+    /** Encodes everything added and writes it to {@code file}, which is replaced atomically. */
+    public void finish(Path file) throws IOException {
+        boolean v1 = version == SegmentFormat.VERSION_1;
+        int docCount = bookIds.size;
+
+        // doc ordinals follow book ids: sort (bookId, index) pairs
+        long[] keys = new long[docCount];
+        for (int i = 0; i < docCount; i++) keys[i] = ((long) bookIds.values[i] << 32) | i;
+        Arrays.sort(keys);
+        int[] byOrd = new int[docCount];
+        int[] ordOf = new int[docCount];
+        for (int ord = 0; ord < docCount; ord++) {
+            byOrd[ord] = (int) keys[ord];
+            ordOf[byOrd[ord]] = ord;
+            if (ord > 0 && (keys[ord] >> 32) == (keys[ord - 1] >> 32)) {
+                throw new IllegalArgumentException("Book " + (keys[ord] >> 32) + " added twice");
+            }
+        }
+
+        String[] terms = inverted.keySet().toArray(new String[0]);
+        IntList[] lists = new IntList[terms.length];
+        byte[][] termBytes = new byte[terms.length][];
+        Integer[] order = new Integer[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lists[i] = inverted.get(terms[i]);
+            termBytes[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+            order[i] = i;
+        }
+        inverted.clear();
+        Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(termBytes[a], termBytes[b]));
+
+        ByteBuf termIndex = new ByteBuf(terms.length * (v1 ? SegmentFormat.TERM_ENTRY_SIZE_1 : SegmentFormat.TERM_ENTRY_SIZE));
+        ByteBuf termBlocks = new ByteBuf(v1 ? 0 : (terms.length / SegmentFormat.TERMS_PER_BLOCK + 1) * 4);
+        ByteBuf termData = new ByteBuf(terms.length * 8);
+        ByteBuf postings = new ByteBuf(terms.length * 8);
+        PostingsEncoder encoder = new PostingsEncoder(ordOf, positions);
+
+        byte[] previous = new byte[0];
+        for (int n = 0; n < order.length; n++) {
+            int i = order[n];
+            int df = encoder.collect(lists[i]);
+            lists[i] = null; // encoded below; nothing else refers to it
+            byte[] term = termBytes[i];
+            if (v1) {
+                termIndex.putInt(termData.size());
+                termIndex.putInt(df);
+                termIndex.putLong(postings.size());
+                termData.putVInt(term.length);
+                termData.put(term);
+                encoder.writeV1(postings);
+            } else {
+                termIndex.putInt(df);
+                termIndex.putInt(postings.size());
+                if (n % SegmentFormat.TERMS_PER_BLOCK == 0) {
+                    termBlocks.putInt(termData.size());
+                    termData.putVInt(term.length);
+                    termData.put(term);
+                } else {
+                    int shared = Arrays.mismatch(previous, term);
+                    if (shared < 0) shared = term.length; // duplicates cannot happen; keeps the encoding total
+                    termData.putVInt(shared);
+                    termData.putVInt(term.length - shared);
+                    termData.put(term, shared, term.length - shared);
+                }
+                encoder.write(postings);
+            }
+            previous = term;
+        }
+
+        ByteBuf docTable = new ByteBuf(docCount * SegmentFormat.DOC_ENTRY_SIZE);
+        for (int ord = 0; ord < docCount; ord++) {
+            int d = byOrd[ord];
+            docTable.putInt(bookIds.values[d]);
+            docTable.putInt(lengths.values[d]);
+            docTable.putLong(versions.values[d]);
+            docTable.putLong(metaStarts.values[d]);
+        }
+
+        long docTableOffset = SegmentFormat.HEADER_SIZE;
+        long termIndexOffset = docTableOffset + docTable.size();
+        long termBlocksOffset = termIndexOffset + termIndex.size();
+        long termDataOffset = termBlocksOffset + termBlocks.size();
+        long postingsOffset = termDataOffset + termData.size();
+        long metaOffset = postingsOffset + postings.size();
+        long total = metaOffset + meta.size();
+        if (total > SegmentFormat.MAX_SEGMENT_BYTES) {
+            // version 2 term index entries could not address the postings, nor could readers map the file
+            throw new IOException("Segment " + file + " would take " + total + " bytes, over the "
+                    + SegmentFormat.MAX_SEGMENT_BYTES + " byte limit");
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+        header.putInt(SegmentFormat.MAGIC);
+        header.putShort(version);
+        header.putShort(positions ? SegmentFormat.FLAG_POSITIONS : 0);
+        header.putInt(docCount);
+        header.putInt(terms.length);
+        header.putLong(docTableOffset);
+        header.putLong(termIndexOffset);
+        header.putLong(termDataOffset);
+        header.putLong(postingsOffset);
+        header.putLong(metaOffset);
+        if (!v1) header.putLong(termBlocksOffset);
+        header.rewind();
+
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer[] sections = {header, docTable.wrap(), termIndex.wrap(), termBlocks.wrap(), termData.wrap(),
+                    postings.wrap(), meta.wrap()};
+            long remaining = total;
+            bytesWritten.add(remaining);
+            while (remaining > 0) remaining -= ch.write(sections);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // the manifest may name the segment as soon as this returns
+        FileSync.directory(file.getParent());
+    }
+
+    /**
+     * Encodes posting lists, reusing its buffers from one term to the next. {@link #collect}
+     * loads a term's list in doc ordinal order, then {@link #write} or {@link #writeV1}
+     * encodes it.
+     */
+    private static final class PostingsEncoder {
+        final int[] ordOf;
+        final boolean positions;
+        final int[] gaps = new int[BlockPacking.BLOCK];
+        final int[] freqs = new int[BlockPacking.BLOCK];
+        final int[] words = new int[BlockPacking.WORDS];
+        final ByteBuf skip = new ByteBuf(64);
+        final ByteBuf blocks = new ByteBuf(1024);
+        // the collected list: packed (doc ordinal << 32 | where the doc's entry starts in data)
+        long[] refs = new long[16];
+        int size;
+        int[] data;
+
+        PostingsEncoder(int[] ordOf, boolean positions) {
+            this.ordOf = ordOf;
+            this.positions = positions;
+        }
+
+        /** Loads the entries of one term; returns its document frequency. */
+        int collect(IntList list) {
+            data = list.values;
+            size = 0;
+            boolean sorted = true;
+            for (int i = 0; i < list.size; i += positions ? 2 + data[i + 1] : 2) {
+                if (size == refs.length) refs = Arrays.copyOf(refs, size * 2);
+                refs[size] = ((long) ordOf[data[i]] << 32) | i;
+                if (size > 0 && refs[size] < refs[size - 1]) sorted = false;
+                size++;
+            }
+            // books added in book id order, as deltas and most merges add them, are in order already
+            if (!sorted) Arrays.sort(refs, 0, size);
+            return size;
+        }
+
+        private int ord(int r) {
+            return (int) (refs[r] >>> 32);
+        }
+
+        private int freq(int r) {
+            return data[(int) refs[r] + 1];
+        }
+
+        void writeV1(ByteBuf out) {
+            int prevOrd = 0;
+            for (int r = 0; r < size; r++) {
+                out.putVInt(ord(r) - prevOrd);
+                out.putVInt(freq(r));
+                writePositions(r, r + 1, out);
+                prevOrd = ord(r);
+            }
+        }
+
+        void write(ByteBuf out) {
+            skip.clear();
+            blocks.clear();
+            int prevOrd = 0;
+            int r = 0;
+            for (; r + BlockPacking.BLOCK <= size; r += BlockPacking.BLOCK) {
+                int minGap = Integer.MAX_VALUE;
+                int minFreq = Integer.MAX_VALUE;
+                for (int i = 0; i < BlockPacking.BLOCK; i++) {
+                    int ord = ord(r + i);
+                    gaps[i] = ord - prevOrd;
+                    freqs[i] = freq(r + i);
+                    minGap = Math.min(minGap, gaps[i]);
+                    minFreq = Math.min(minFreq, freqs[i]);
+                    prevOrd = ord;
+                }
+                for (int i = 0; i < BlockPacking.BLOCK; i++) {
+                    gaps[i] -= minGap;
+                    freqs[i] -= minFreq;
+                }
+                int gapBits = BlockPacking.bitsRequired(gaps, BlockPacking.BLOCK);
+                int freqBits = BlockPacking.bitsRequired(freqs, BlockPacking.BLOCK);
+                blocks.putVInt(minGap);
+                blocks.putByte(gapBits);
+                blocks.putVInt(minFreq);
+                blocks.putByte(freqBits);
+                BlockPacking.pack(gaps, gapBits, words);
+                blocks.putInts(words, 4 * gapBits);
+                BlockPacking.pack(freqs, freqBits, words);
+                blocks.putInts(words, 4 * freqBits);
+                writePositions(r, r + BlockPacking.BLOCK, blocks);
+                skip.putInt(prevOrd);
+                skip.putInt(blocks.size());
+            }
+            int tail = r;
+            for (; r < size; r++) {
+                blocks.putVInt(ord(r) - prevOrd);
+                blocks.putVInt(freq(r));
+                prevOrd = ord(r);
+            }
+            writePositions(tail, size, blocks);
+            out.put(skip);
+            out.put(blocks);
+        }
+
+        private void writePositions(int from, int to, ByteBuf out) {
+            if (!positions) return;
+            for (int r = from; r < to; r++) {
+                int at = (int) refs[r] + 2;
+                int prevPos = 0;
+                for (int i = at, end = at + freq(r); i < end; i++) {
+                    out.putVInt(data[i] - prevPos);
+                    prevPos = data[i];
+                }
+            }
+        }
+    }
+
+    private static final class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+
+        void addAll(int[] v) {
+            if (size + v.length > values.length) values = Arrays.copyOf(values, Math.max(size * 2, size + v.length));
+            System.arraycopy(v, 0, values, size, v.length);
+            size += v.length;
+        }
+    }
+
+    private static final class LongList {
+        long[] values = new long[2];
+        int size;
+
+        void add(long v) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = v;
+        }
+    }
+
+    /**
+     * Growable big-endian byte buffer with LEB128 varints. Growing past 2 GB throws
+     * {@link IllegalStateException} rather than wrapping around.
+     */
+    static final class ByteBuf {
+        private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+        private byte[] buf;
+        private int size;
+
+        ByteBuf(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        int size() { return size; }
+
+        private void ensure(int extra) {
+            if (size + extra <= buf.length) return;
+            long needed = (long) size + extra;
+            if (needed > MAX_ARRAY) throw new IllegalStateException("Segment section would exceed 2 GB");
+            buf = Arrays.copyOf(buf, (int) Math.min(Math.max(2L * buf.length, needed), MAX_ARRAY));
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void put(byte[] b) {
+            put(b, 0, b.length);
+        }
+
+        void put(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, buf, size, len);
+            size += len;
+        }
+
+        void put(ByteBuf other) {
+            put(other.buf, 0, other.size);
+        }
+
+        void putByte(int v) {
+            ensure(1);
+            buf[size++] = (byte) v;
+        }
+
+        void putInt(int v) {
+            ensure(4);
+            buf[size++] = (byte) (v >>> 24);
+            buf[size++] = (byte) (v >>> 16);
+            buf[size++] = (byte) (v >>> 8);
+            buf[size++] = (byte) v;
+        }
+
+        void putInts(int[] v, int n) {
+            for (int i = 0; i < n; i++) putInt(v[i]);
+        }
+
+        void putLong(long v) {
+            putInt((int) (v >>> 32));
+            putInt((int) v);
+        }
+
+        void putVInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void putString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            putVInt(b.length);
+            put(b);
+        }
+
+        ByteBuffer wrap() {
+            return ByteBuffer.wrap(buf, 0, size);
+        }
+    }
+}
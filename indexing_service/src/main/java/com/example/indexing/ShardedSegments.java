@@ -0,0 +1,93 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Routes every book to the {@link SegmentStore} of the search shard that owns it. With a
+ * single shard that is {@code <root>} itself, as before sharding; with {@code n > 1} shards
+ * it is {@code <root>/shard-<k>}, where {@code k = shardOf(bookId, n)}. Each search instance
+ * started with {@code SHARD_ID=k} serves exactly that directory.
+ */
+public class ShardedSegments {
+
+    private final SegmentStore[] stores;
+
+    public ShardedSegments(Path root, int shardCount, boolean positions) {
+        if (shardCount < 1) throw new IllegalArgumentException("shard count must be at least 1");
+        this.stores = new SegmentStore[shardCount];
+        for (int k = 0; k < shardCount; k++) {
+            stores[k] = new SegmentStore(shardCount == 1 ? root : root.resolve("shard-" + k), positions);
+        }
+    }
+
+    /** Hash partitioning (murmur3 finalizer), so consecutive ids spread over all shards. */
+    public static int shardOf(int bookId, int shardCount) {
+        int h = bookId;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, shardCount);
+    }
+
+    public int shardCount() { return stores.length; }
+
+    public SegmentStore forBook(int bookId) {
+        return stores[shardOf(bookId, stores.length)];
+    }
+
+    public void open() throws IOException {
+        for (SegmentStore s : stores) s.open();
+    }
+
+    public long nextVersion(int bookId) {
+        return forBook(bookId).nextVersion();
+    }
+
+    public void write(SegmentDoc doc) throws IOException {
+        forBook(doc.bookId).write(doc);
+    }
+
+    public boolean isIndexed(int bookId) {
+        return forBook(bookId).isIndexed(bookId);
+    }
+
+    public Optional<SegmentDoc> read(int bookId) throws IOException {
+        return forBook(bookId).read(bookId);
+    }
+
+    /** Books whose update was interrupted by a crash, over all shards. */
+    public Set<Integer> pendingBooks() {
+        Set<Integer> all = new TreeSet<>();
+        for (SegmentStore s : stores) all.addAll(s.pendingBooks());
+        return all;
+    }
+
+    public void abandon(int bookId) throws IOException {
+        forBook(bookId).abandon(bookId);
+    }
+
+    public Set<Integer> indexedBooks() {
+        if (stores.length == 1) return stores[0].indexedBooks();
+        Set<Integer> all = new HashSet<>();
+        for (SegmentStore s : stores) all.addAll(s.indexedBooks());
+        return all;
+    }
+
+    /** Runs a merge on every shard; returns the total number of segments merged. */
+    public int merge(int minInputs, int maxInputs, long maxMergeBytes) throws IOException {
+        int merged = 0;
+        for (SegmentStore s : stores) merged += s.merge(minInputs, maxInputs, maxMergeBytes);
+        return merged;
+    }
+
+    /** Generation of each shard, in shard order. */
+    public long[] generations() {
+        long[] g = new long[stores.length];
+        for (int k = 0; k < g.length; k++) g[k] = stores[k].generation();
+        return g;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.indexing;
+
+import java.util.*;
+
+/**
+ * Primitive term dictionary fed straight from {@link Tokenizer}. Each distinct term is
+ * interned once into a shared char pool and given a dense id; counts and positions are
+ * kept in arrays indexed by that id. Strings are only created when the vocabulary is
+ * exported, once per distinct term.
+ */
+public class TermCounter implements Tokenizer.TokenSink {
+
+    private final boolean trackPositions;
+    private final int minLength;
+
+    private int[] table = new int[2048];      // slot -> term id + 1, 0 = empty
+    private int[] hashes = new int[1024];
+    private int[] starts = new int[1024];
+    private int[] lengths = new int[1024];
+    private int[] counts = new int[1024];
+    private int[][] positions;
+    private char[] pool = new char[16 * 1024];
+    private int poolSize;
+    private int size;
+    private int tokens;
+
+    /** Only terms longer than {@code minLength} characters are counted. */
+    public TermCounter(boolean trackPositions, int minLength) {
+        this.trackPositions = trackPositions;
+        this.minLength = minLength;
+        this.positions = trackPositions ? new int[1024][] : null;
+    }
+
+    @Override
+    public void token(char[] buf, int len, int position) {
+        if (len <= minLength) return;
+        tokens++;
+        int id = intern(buf, len);
+        int c = counts[id]++;
+        if (trackPositions) {
+            int[] p = positions[id];
+            if (c == p.length) positions[id] = p = Arrays.copyOf(p, c * 2);
+            p[c] = position;
+        }
+    }
+
+    private int intern(char[] buf, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) h = 31 * h + buf[i];
+        int mask = table.length - 1;
+        int slot = mix(h) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (hashes[id] == h && equals(id, buf, len)) return id;
+            slot = (slot + 1) & mask;
+        }
+
+        int id = size++;
+        if (id == counts.length) growIds();
+        if (poolSize + len > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, poolSize + len));
+        System.arraycopy(buf, 0, pool, poolSize, len);
+        hashes[id] = h;
+        starts[id] = poolSize;
+        lengths[id] = len;
+        poolSize += len;
+        if (trackPositions) positions[id] = new int[4];
+        table[slot] = id + 1;
+        if (size * 2 > table.length) rehash();
+        return id;
+    }
+
+    private boolean equals(int id, char[] buf, int len) {
+        if (lengths[id] != len) return false;
+        int s = starts[id];
+        for (int i = 0; i < len; i++) {
+            if (pool[s + i] != buf[i]) return false;
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private void growIds() {
+        int n = counts.length * 2;
+        hashes = Arrays.copyOf(hashes, n);
+        starts = Arrays.copyOf(starts, n);
+        lengths = Arrays.copyOf(lengths, n);
+        counts = Arrays.copyOf(counts, n);
+        if (trackPositions) positions = Arrays.copyOf(positions, n);
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        int mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(hashes[id]) & mask;
+            while (table[slot] != 0) slot = (slot + 1) & mask;
+            table[slot] = id + 1;
+        }
+    }
+
+    public int size() { return size; }
+
+    /** Number of tokens counted, i.e. the document length. */
+    public int tokens() { return tokens; }
+
+    private String term(int id) {
+        return new String(pool, starts[id], lengths[id]);
+    }
+
+    /** The {@code n} most frequent terms, most frequent first, selected with a bounded heap. */
+    public LinkedHashMap<String, Integer> top(int n) {
+        PriorityQueue<Integer> heap = new PriorityQueue<>(n + 1, Comparator.comparingInt(id -> counts[id]));
+        for (int id = 0; id < size; id++) {
+            if (heap.size() < n) {
+                heap.add(id);
+            } else if (counts[id] > counts[heap.peek()]) {
+                heap.poll();
+                heap.add(id);
+            }
+        }
+        Integer[] ids = heap.toArray(new Integer[0]);
+        Arrays.sort(ids, Comparator.comparingInt((Integer id) -> counts[id]).reversed());
+        LinkedHashMap<String, Integer> top = new LinkedHashMap<>();
+        for (int id : ids) top.put(term(id), counts[id]);
+        return top;
+    }
+
+    public SegmentDoc toDoc(int bookId, long version, Map<String, String> metadata) {
+        String[] names = new String[size];
+        Integer[] order = new Integer[size];
+        for (int id = 0; id < size; id++) {
+            names[id] = term(id);
+            order[id] = id;
+        }
+        Arrays.sort(order, Comparator.comparing(id -> names[id]));
+
+        String[] terms = new String[size];
+        int[] freqs = new int[size];
+        int[][] pos = trackPositions ? new int[size][] : null;
+        for (int i = 0; i < size; i++) {
+            int id = order[i];
+            terms[i] = names[id];
+            freqs[i] = counts[id];
+            if (pos != null) pos[i] = Arrays.copyOf(positions[id], counts[id]);
+        }
+        return new SegmentDoc(bookId, version, tokens, metadata, terms, freqs, pos);
+    }
+}
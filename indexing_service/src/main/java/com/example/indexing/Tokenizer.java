@@ -0,0 +1,87 @@
+package com.example.indexing;
+
+import com.example.segment.TermFolding;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+/**
+ * Single-pass word tokenizer. Letters are folded by {@link TermFolding} while scanning
+ * (Á -> a, ñ -> n, ü -> u) and each word is handed to a {@link TokenSink} as a slice of a
+ * reused {@code char[]}, so no String or array is allocated per token. Anything that is not
+ * an ASCII or Latin-1 letter separates words.
+ */
+public class Tokenizer {
+
+    @FunctionalInterface
+    public interface TokenSink {
+        /** {@code position} counts every word seen so far, starting at 0. */
+        void token(char[] buf, int len, int position);
+    }
+
+    public static final int MAX_TOKEN_LENGTH = TermFolding.MAX_TERM_LENGTH;
+
+    private final char[] buf = new char[MAX_TOKEN_LENGTH];
+    private int len;
+    private int position;
+
+    public void tokenize(CharSequence text, TokenSink sink) {
+        reset();
+        for (int i = 0, n = text.length(); i < n; i++) {
+            accept(TermFolding.fold(text.charAt(i)), sink);
+        }
+        flush(sink);
+    }
+
+    public void tokenize(CharBuffer text, TokenSink sink) {
+        reset();
+        for (int i = text.position(), n = text.limit(); i < n; i++) {
+            accept(TermFolding.fold(text.get(i)), sink);
+        }
+        flush(sink);
+    }
+
+    /**
+     * Tokenizes UTF-8 bytes between the buffer's position and limit without decoding them to a String.
+     * Multi-byte sequences outside Latin-1 are treated as separators.
+     */
+    public void tokenize(ByteBuffer utf8, TokenSink sink) {
+        reset();
+        int i = utf8.position();
+        int n = utf8.limit();
+        while (i < n) {
+            int b = utf8.get(i) & 0xFF;
+            if (b < 0x80) {
+                accept(TermFolding.fold(b), sink);
+                i++;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < n) {
+                int cp = ((b & 0x1F) << 6) | (utf8.get(i + 1) & 0x3F);
+                accept(TermFolding.fold(cp), sink);
+                i += 2;
+            } else {
+                accept((char) 0, sink);
+                i += (b & 0xF0) == 0xE0 ? 3 : (b & 0xF8) == 0xF0 ? 4 : 1;
+            }
+        }
+        flush(sink);
+    }
+
+    private void accept(char c, TokenSink sink) {
+        if (c != 0) {
+            if (len < MAX_TOKEN_LENGTH) buf[len++] = c;
+        } else if (len > 0) {
+            sink.token(buf, len, position++);
+            len = 0;
+        }
+    }
+
+    private void flush(TokenSink sink) {
+        if (len > 0) sink.token(buf, len, position++);
+        len = 0;
+    }
+
+    private void reset() {
+        len = 0;
+        position = 0;
+    }
+}
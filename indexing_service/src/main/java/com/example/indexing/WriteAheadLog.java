@@ -0,0 +1,84 @@
+package com.example.indexing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Intent log for book updates. {@code B <bookId> <version>} is forced to disk before a
+ * book's segment is written and {@code C <bookId> <version>} appended once the manifest
+ * naming it is committed. After a crash, books with more B than C records were being
+ * indexed and are handed back by {@link #recover} to be indexed again. The manifest
+ * commit is forced before its C record is appended, so a C on disk always means a durable
+ * commit; a lost C record only costs a redundant re-index, so commits are not forced.
+ */
+public class WriteAheadLog {
+
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    private final Path file;
+    private final Map<Integer, Integer> inflight = new HashMap<>();
+    private final Set<Integer> recovered = new HashSet<>();
+    private FileChannel channel;
+
+    public WriteAheadLog(Path file) {
+        this.file = file;
+    }
+
+    /** Reads the log left by the previous run and returns the books that never committed. */
+    public synchronized Set<Integer> recover() throws IOException {
+        Map<Integer, Integer> open = new TreeMap<>();
+        if (Files.exists(file)) {
+            for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+                String[] f = line.split(" ");
+                if (f.length != 3) continue; // torn last record
+                try {
+                    int bookId = Integer.parseInt(f[1]);
+                    if (f[0].equals("B")) open.merge(bookId, 1, Integer::sum);
+                    else if (f[0].equals("C")) open.computeIfPresent(bookId, (k, n) -> n > 1 ? n - 1 : null);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+        // start a fresh log that still remembers the unfinished books until they are redone
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        for (int bookId : open.keySet()) sb.append("B ").append(bookId).append(" 0\n");
+        Files.writeString(tmp, sb, StandardCharsets.US_ASCII);
+        FileSync.force(tmp);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileSync.directory(file.getParent());
+        for (int bookId : open.keySet()) inflight.put(bookId, 1);
+        recovered.addAll(open.keySet());
+
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return open.keySet();
+    }
+
+    public synchronized void begin(int bookId, long version) throws IOException {
+        append("B " + bookId + " " + version + "\n");
+        channel.force(false);
+        inflight.merge(bookId, 1, Integer::sum);
+    }
+
+    public synchronized void commit(int bookId, long version) throws IOException {
+        append("C " + bookId + " " + version + "\n");
+        inflight.computeIfPresent(bookId, (k, n) -> n > 1 ? n - 1 : null);
+        resolve(bookId);
+        if (inflight.isEmpty() && channel.size() > CHECKPOINT_BYTES) channel.truncate(0);
+    }
+
+    /** Closes the carried-over record of a recovered book, once redone or given up on. */
+    public synchronized void resolve(int bookId) throws IOException {
+        if (!recovered.remove(bookId)) return;
+        append("C " + bookId + " 0\n");
+        inflight.computeIfPresent(bookId, (k, n) -> n > 1 ? n - 1 : null);
+    }
+
+    private void append(String record) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(record.getBytes(StandardCharsets.US_ASCII));
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+}
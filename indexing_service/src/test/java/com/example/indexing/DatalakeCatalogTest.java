@@ -0,0 +1,84 @@
+package com.example.indexing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatalakeCatalogTest {
+
+    @TempDir
+    Path root;
+
+    private static String line(int id) {
+        return id + "\traw/" + id + ".txt\t100\t0\tabc\n";
+    }
+
+    private void append(String text) throws IOException {
+        Files.writeString(root.resolve(DatalakeCatalog.LOG), text, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /** Does what the ingestion service's compaction does: a new snapshot, then no log. */
+    private void compact(String snapshot) throws IOException {
+        Path tmp = root.resolve(DatalakeCatalog.SNAPSHOT + ".tmp");
+        Files.writeString(tmp, snapshot);
+        Files.move(tmp, root.resolve(DatalakeCatalog.SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(root.resolve(DatalakeCatalog.LOG));
+    }
+
+    @Test
+    void readsOnlyWhatWasAppended() throws IOException {
+        DatalakeCatalog catalog = new DatalakeCatalog(root);
+        assertFalse(catalog.refresh());
+        Files.writeString(root.resolve(DatalakeCatalog.SNAPSHOT), line(1));
+        append(line(2));
+        assertTrue(catalog.refresh());
+        append(line(3) + "3\t-\n");
+        assertTrue(catalog.refresh());
+        assertEquals(2, catalog.all().size());
+        assertEquals(Optional.of(root.resolve("raw/2.txt")), catalog.find(2));
+        assertEquals(Optional.empty(), catalog.find(3));
+    }
+
+    @Test
+    void aCompactedLogThatOutgrewTheOldOffsetIsReadFromTheStart() throws IOException {
+        DatalakeCatalog catalog = new DatalakeCatalog(root);
+        Files.writeString(root.resolve(DatalakeCatalog.SNAPSHOT), line(1));
+        append(line(2));
+        assertTrue(catalog.refresh());
+
+        compact(line(1) + line(2));
+        // longer than the log read before, so its size alone does not give the swap away
+        append(line(40) + line(41));
+        assertTrue(catalog.refresh());
+        assertEquals(4, catalog.all().size());
+        assertTrue(catalog.find(40).isPresent());
+        assertTrue(catalog.find(41).isPresent());
+    }
+
+    @Test
+    void skipsALogOlderThanItsSnapshot() throws IOException {
+        DatalakeCatalog catalog = new DatalakeCatalog(root);
+        Path snapshot = root.resolve(DatalakeCatalog.SNAPSHOT);
+        Path log = root.resolve(DatalakeCatalog.LOG);
+        Files.writeString(snapshot, line(1) + line(2));
+        // the log compaction has just folded into the snapshot and not yet deleted
+        append(line(1) + line(2) + line(3) + "3\t-\n" + line(4) + "4\t-\n");
+        Files.setLastModifiedTime(log, FileTime.from(Files.getLastModifiedTime(snapshot).toInstant().minusSeconds(1)));
+        assertTrue(catalog.refresh());
+        assertEquals(2, catalog.all().size());
+
+        Files.delete(log);
+        append(line(5) + line(6) + line(7) + line(8) + line(9));
+        assertTrue(catalog.refresh());
+        assertEquals(7, catalog.all().size());
+    }
+}
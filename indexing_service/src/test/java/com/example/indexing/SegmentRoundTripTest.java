@@ -0,0 +1,153 @@
+package com.example.indexing;
+
+import com.example.segment.SegmentFormat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Segments written in both formats and read back by {@link SegmentReader}. */
+class SegmentRoundTripTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * Books over a small Zipf-like vocabulary, so the commonest terms fill several blocks of
+     * 128 postings and the rare ones only a tail.
+     */
+    static List<SegmentDoc> books(int count, long seed) {
+        Random rnd = new Random(seed);
+        String[] vocabulary = new String[2000];
+        for (int i = 0; i < vocabulary.length; i++) {
+            StringBuilder w = new StringBuilder();
+            for (int n = 4 + rnd.nextInt(8); n > 0; n--) w.append((char) ('a' + rnd.nextInt(26)));
+            vocabulary[i] = w.toString();
+        }
+        List<SegmentDoc> docs = new ArrayList<>();
+        for (int b = 0; b < count; b++) {
+            StringBuilder text = new StringBuilder("Title: Book ").append(b).append("\nAuthor: Author ").append(b % 7)
+                    .append("\nLanguage: English\n*** START OF THE BOOK ***\n");
+            for (int n = 50 + rnd.nextInt(400); n > 0; n--) {
+                double u = rnd.nextDouble();
+                text.append(vocabulary[(int) (vocabulary.length * u * u * u)]).append(' ');
+            }
+            // book ids with gaps, as in a real datalake
+            int bookId = 3 * b + rnd.nextInt(3);
+            docs.add(BookAnalyzer.analyze(bookId, text.toString().getBytes(StandardCharsets.UTF_8), 1000 + b, true));
+        }
+        return docs;
+    }
+
+    private static Map<String, String> forward(SegmentDoc d) {
+        Map<String, String> m = new TreeMap<>();
+        for (int i = 0; i < d.terms.length; i++) {
+            m.put(d.terms[i], d.freqs[i] + (d.positions == null ? "" : Arrays.toString(d.positions[i])));
+        }
+        return m;
+    }
+
+    private static void assertSameDocs(List<SegmentDoc> expected, List<SegmentDoc> actual) {
+        Map<Integer, SegmentDoc> byId = new HashMap<>();
+        for (SegmentDoc d : expected) byId.put(d.bookId, d);
+        assertEquals(expected.size(), actual.size());
+        for (SegmentDoc d : actual) {
+            SegmentDoc o = byId.get(d.bookId);
+            assertNotNull(o, "book " + d.bookId);
+            assertEquals(o.version, d.version);
+            assertEquals(o.length, d.length);
+            assertEquals(o.metadata, d.metadata);
+            assertEquals(forward(o), forward(d), "book " + d.bookId);
+        }
+    }
+
+    @Test
+    void bothVersionsReadBackWhatWasWritten() throws IOException {
+        List<SegmentDoc> docs = books(600, 1);
+        for (short version : new short[]{SegmentFormat.VERSION_1, SegmentFormat.VERSION}) {
+            Path file = dir.resolve("v" + version + ".seg");
+            SegmentWriter.write(file, docs, true, version);
+            SegmentReader r = SegmentReader.open(file);
+            assertEquals(version, r.version());
+            assertTrue(r.hasPositions());
+            assertEquals(docs.size(), r.docCount());
+            assertSameDocs(docs, r.readDocs(null));
+        }
+    }
+
+    @Test
+    void withoutPositions() throws IOException {
+        List<SegmentDoc> docs = new ArrayList<>();
+        for (SegmentDoc d : books(300, 2)) {
+            docs.add(new SegmentDoc(d.bookId, d.version, d.length, d.metadata, d.terms, d.freqs, null));
+        }
+        Path file = dir.resolve("nopos.seg");
+        SegmentWriter.write(file, docs, false);
+        SegmentReader r = SegmentReader.open(file);
+        assertFalse(r.hasPositions());
+        assertSameDocs(docs, r.readDocs(null));
+    }
+
+    @Test
+    void booksAddedInAnyOrderReadBackSorted() throws IOException {
+        List<SegmentDoc> docs = books(400, 4);
+        List<SegmentDoc> shuffled = new ArrayList<>(docs);
+        Collections.shuffle(shuffled, new Random(4));
+        SegmentWriter w = new SegmentWriter(true, SegmentFormat.VERSION);
+        for (SegmentDoc d : shuffled) w.add(d);
+        assertEquals(docs.size(), w.docCount());
+        Path file = dir.resolve("shuffled.seg");
+        w.finish(file);
+        assertSameDocs(docs, SegmentReader.open(file).readDocs(null));
+    }
+
+    @Test
+    void aBookWithoutPositionsDropsThemEverywhere() throws IOException {
+        List<SegmentDoc> docs = books(200, 5);
+        List<SegmentDoc> expected = new ArrayList<>();
+        SegmentWriter w = new SegmentWriter(true, SegmentFormat.VERSION);
+        for (int i = 0; i < docs.size(); i++) {
+            SegmentDoc d = docs.get(i);
+            SegmentDoc bare = new SegmentDoc(d.bookId, d.version, d.length, d.metadata, d.terms, d.freqs, null);
+            w.add(i == 150 ? bare : d);
+            expected.add(bare);
+        }
+        Path file = dir.resolve("mixed.seg");
+        w.finish(file);
+        SegmentReader r = SegmentReader.open(file);
+        assertFalse(r.hasPositions());
+        assertSameDocs(expected, r.readDocs(null));
+    }
+
+    @Test
+    void rejectsABookAddedTwice() {
+        SegmentDoc d = books(1, 6).get(0);
+        SegmentWriter w = new SegmentWriter(true, SegmentFormat.VERSION);
+        w.add(d);
+        w.add(d);
+        assertThrows(IllegalArgumentException.class, () -> w.finish(dir.resolve("twice.seg")));
+    }
+
+    @Test
+    void readsOnlyTheFilteredDocs() throws IOException {
+        List<SegmentDoc> docs = books(400, 3);
+        Path file = dir.resolve("filtered.seg");
+        SegmentWriter.write(file, docs, true);
+        SegmentReader r = SegmentReader.open(file);
+
+        boolean[] keep = new boolean[r.docCount()];
+        Set<Integer> kept = new HashSet<>();
+        for (int d = 0; d < keep.length; d += 3) {
+            keep[d] = true;
+            kept.add(r.bookId(d));
+        }
+        List<SegmentDoc> expected = new ArrayList<>();
+        for (SegmentDoc d : docs) if (kept.contains(d.bookId)) expected.add(d);
+        assertSameDocs(expected, r.readDocs(keep));
+    }
+}
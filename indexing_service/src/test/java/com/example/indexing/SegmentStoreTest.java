@@ -0,0 +1,162 @@
+package com.example.indexing;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static SegmentDoc book(SegmentStore store, int bookId, String text) {
+        String raw = "Title: Book " + bookId + "\nAuthor: Someone\n*** START OF THE BOOK ***\n" + text;
+        return BookAnalyzer.analyze(bookId, raw.getBytes(StandardCharsets.UTF_8), store.nextVersion(), true);
+    }
+
+    private SegmentStore reopen() throws IOException {
+        SegmentStore store = new SegmentStore(dir, true);
+        store.open();
+        return store;
+    }
+
+    private static Set<String> terms(SegmentStore store, int bookId) throws IOException {
+        return Set.of(store.read(bookId).orElseThrow().terms);
+    }
+
+    @Test
+    void replaysCommittedUpdatesAfterRestart() throws IOException {
+        SegmentStore store = reopen();
+        store.write(book(store, 1, "whale harpoon captain"));
+        store.write(book(store, 2, "garden rabbit"));
+        store.write(book(store, 1, "lighthouse keeper"));
+
+        SegmentStore after = reopen();
+        assertEquals(Set.of(1, 2), after.indexedBooks());
+        assertTrue(terms(after, 1).contains("lighthouse"));
+        assertFalse(terms(after, 1).contains("whale"));
+        assertTrue(terms(after, 2).contains("rabbit"));
+        // the first copy of book 1 was the only doc in its segment, so it left the index
+        assertEquals(2, after.list().size());
+        assertTrue(after.generation() > store.generation());
+    }
+
+    @Test
+    void replaysTheLogWithoutASnapshot() throws IOException {
+        SegmentStore store = reopen();
+        store.write(book(store, 5, "orchard apple"));
+        // as if the process died before any compaction: only the log knows the segments
+        Files.delete(dir.resolve(SegmentStore.MANIFEST));
+
+        SegmentStore after = reopen();
+        assertEquals(Set.of(5), after.indexedBooks());
+        assertTrue(terms(after, 5).contains("orchard"));
+    }
+
+    @Test
+    void dropsAnUncommittedBlockAndItsSegment() throws IOException {
+        SegmentStore store = reopen();
+        store.write(book(store, 3, "mountain river"));
+
+        // a crash after the segment was written but before the commit line reached the log
+        SegmentDoc torn = book(store, 4, "desert camel");
+        String name = "4-" + torn.version + SegmentStore.SUFFIX;
+        SegmentWriter.write(dir.resolve(name), List.of(torn), true);
+        Files.writeString(dir.resolve(SegmentStore.MANIFEST_LOG), "segment " + name + "\n",
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        SegmentStore after = reopen();
+        assertEquals(Set.of(3), after.indexedBooks());
+        assertFalse(Files.exists(dir.resolve(name)));
+    }
+
+    @Test
+    void handsBackBooksTheWriteAheadLogNeverCommitted() throws IOException {
+        SegmentStore store = reopen();
+        store.write(book(store, 6, "violin concerto"));
+        Files.writeString(dir.resolve(SegmentStore.WAL), "B 7 42\nB 6 43\nC 6 43\n",
+                StandardOpenOption.APPEND);
+
+        SegmentStore after = reopen();
+        assertEquals(Set.of(7), after.pendingBooks());
+        after.abandon(7);
+        assertEquals(Set.of(), reopen().pendingBooks());
+    }
+
+    @Test
+    void mergeKeepsTheNewestCopies() throws IOException {
+        SegmentStore store = reopen();
+        for (int id = 10; id < 15; id++) store.write(book(store, id, "common word number" + id));
+        store.write(book(store, 12, "replaced entirely"));
+        // the old copy of book 12 was alone in its segment, which is already gone
+        assertEquals(5, store.merge(2, 10, Long.MAX_VALUE));
+        assertEquals(1, store.list().size());
+
+        SegmentStore after = reopen();
+        assertEquals(Set.of(10, 11, 12, 13, 14), after.indexedBooks());
+        assertEquals(1, after.list().size());
+        assertTrue(terms(after, 12).contains("replaced"));
+        assertFalse(terms(after, 12).contains("common"));
+    }
+
+    private static List<Long> sizes(SegmentStore store) throws IOException {
+        List<Long> sizes = new ArrayList<>();
+        for (Path p : store.list()) sizes.add(Files.size(p));
+        sizes.sort(null);
+        return sizes;
+    }
+
+    @Test
+    void mergeTakesAtMostMaxInputs() throws IOException {
+        SegmentStore store = reopen();
+        for (int id = 20; id < 27; id++) store.write(book(store, id, "river delta number" + id));
+        assertEquals(4, store.merge(2, 4, Long.MAX_VALUE));
+        assertEquals(4, store.list().size());
+        assertEquals(Set.of(20, 21, 22, 23, 24, 25, 26), reopen().indexedBooks());
+    }
+
+    @Test
+    void mergeStaysWithinItsByteBound() throws IOException {
+        SegmentStore store = reopen();
+        for (int id = 30; id < 36; id++) store.write(book(store, id, "mountain pass number" + id));
+        List<Long> sizes = sizes(store);
+        long bound = sizes.get(0) + sizes.get(1) + sizes.get(2) - 1;
+        // only two of the smallest fit, fewer than three
+        assertEquals(0, store.merge(3, 10, bound));
+        assertEquals(2, store.merge(2, 10, bound));
+        assertEquals(5, store.list().size());
+    }
+
+    @Test
+    void mergeLeavesLargerTiersAlone() throws IOException {
+        SegmentStore store = reopen();
+        // a dictionary of many distinct words puts this book's segment above the merge floor
+        Random rnd = new Random(1);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 120_000; i++) {
+            for (int n = 0; n < 7; n++) text.append((char) ('a' + rnd.nextInt(26)));
+            text.append(' ');
+        }
+        store.write(book(store, 40, text.toString()));
+        Path large = store.list().get(0);
+        assertTrue(Files.size(large) >= SegmentStore.MERGE_FLOOR_BYTES);
+        for (int id = 41; id < 44; id++) store.write(book(store, id, "small book number" + id));
+
+        assertEquals(3, store.merge(2, 10, Long.MAX_VALUE));
+        assertEquals(2, store.list().size());
+        assertTrue(store.list().contains(large));
+        // the merged segment is alone in its tier now
+        assertEquals(0, store.merge(2, 10, Long.MAX_VALUE));
+    }
+}
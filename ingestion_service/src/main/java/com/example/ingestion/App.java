@@ -1,32 +1,53 @@
 package com.example.ingestion;
 
+import com.example.metrics.Metrics;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.*;
-import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.*;
 
 public class App {
     private static final Gson gson = new Gson();
     private static final String DATALAKE_ROOT = "datalake";
     private static final HttpClient httpClient = HttpClient.newHttpClient();
+    private static final int MAX_BATCH = 100_000;
+    private static final Catalog catalog = new Catalog(Paths.get(DATALAKE_ROOT));
+    // point GUTENBERG_BASE_URL at a local stub server in tests
+    private static final Downloader downloader = new Downloader(
+            httpClient,
+            env("GUTENBERG_BASE_URL", "https://www.gutenberg.org"),
+            Paths.get(DATALAKE_ROOT),
+            "gzip".equalsIgnoreCase(System.getenv("INGEST_COMPRESSION")),
+            new RateLimiter(Double.parseDouble(env("INGEST_RATE_PER_HOST", "10")), Double.parseDouble(env("INGEST_BURST", "10"))),
+            Integer.parseInt(env("INGEST_RETRIES", "3")),
+            Long.parseLong(env("INGEST_BACKOFF_MS", "500")));
+    private static final ExecutorService downloadPool = Executors.newFixedThreadPool(
+            Integer.parseInt(env("INGEST_CONCURRENCY", "16")), r -> {
+                Thread t = new Thread(r, "download");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final Metrics.Timer catalogTimer = Metrics.stage("catalog");
+    private static final Metrics.Timer parseTimer = Metrics.stage("json_parse");
+
+    public static void main(String[] args) throws IOException {
+        catalog.open();
 
-    public static void main(String[] args) {
         Javalin app = Javalin.create(config -> {
             config.http.defaultContentType = "application/json";
-        }).start(7001);
+        }).start(Integer.parseInt(env("INGEST_PORT", "7001")));
+        Metrics.install(app, "ingestion_", Long.parseLong(env("SLOW_REQUEST_MS", "1000")));
+        Metrics.gauge("catalog_books", "Books in the datalake catalog.", catalog::size);
 
         app.get("/status", ctx -> {
             JsonObject status = new JsonObject();
@@ -35,9 +56,16 @@ public class App {
             ctx.result(gson.toJson(status));
         });
 
+        app.post("/ingest/batch", App::handleBatch);
         app.post("/ingest/{book_id}", App::handleIngest);
         app.get("/ingest/status/{book_id}", App::handleStatus);
         app.get("/ingest/list", App::handleList);
+        app.post("/ingest/catalog/repair", App::handleRepair);
+    }
+
+    private static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? def : v;
     }
 
     private static void handleIngest(Context ctx) {
@@ -50,37 +78,106 @@ public class App {
             return;
         }
 
-        String gutenbergUrl = String.format("https://www.gutenberg.org/files/%d/%d-0.txt", bookId, bookId);
-        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd/HH"));
-        String bookPath = DATALAKE_ROOT + "/" + timestamp + "/" + bookId;
-
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(gutenbergUrl))
-                    .timeout(java.time.Duration.ofSeconds(10))
-                    .build();
+            Downloader.Result r = fetch(bookId);
+            if (r.downloaded()) {
+                ctx.result(gson.toJson(r.toMap()));
+            } else if (r.status.equals("not_found")) {
+                ctx.status(404).result(gson.toJson(r.toMap()));
+            } else {
+                ctx.status(500).result(gson.toJson(Map.of("error", "Download failed: " + r.error)));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ctx.status(500).result(gson.toJson(Map.of("error", "Download interrupted")));
+        }
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+    /** Downloads a book and records it in the catalog. */
+    private static Downloader.Result fetch(int bookId) throws InterruptedException {
+        Downloader.Result r = downloader.download(bookId);
+        if (!r.downloaded()) return r;
+        try {
+            long start = System.nanoTime();
+            catalog.record(bookId, r.path, r.bytes, r.sha256);
+            catalogTimer.since(start);
+            return r;
+        } catch (IOException e) {
+            return new Downloader.Result(bookId, "failed", null, 0, null, r.attempts, "Catalog update failed: " + e.getMessage());
+        }
+    }
 
-            if (response.statusCode() != 200) {
-                ctx.status(404).result(gson.toJson(Map.of("book_id", bookId, "status", "not_found")));
-                return;
+    /**
+     * Downloads a list ({@code {"ids": [...]}}) or range ({@code {"from": a, "to": b}}) of
+     * books on the shared download pool and streams one NDJSON line per book as each one
+     * finishes, followed by a summary line with totals and throughput.
+     */
+    private static void handleBatch(Context ctx) throws IOException {
+        List<Integer> ids = new ArrayList<>();
+        try {
+            long parsing = System.nanoTime();
+            JsonObject body = JsonParser.parseString(ctx.body()).getAsJsonObject();
+            parseTimer.since(parsing);
+            if (body.has("ids")) {
+                for (JsonElement e : body.getAsJsonArray("ids")) ids.add(e.getAsInt());
+            } else if (body.has("from") && body.has("to")) {
+                int from = body.get("from").getAsInt();
+                int to = body.get("to").getAsInt();
+                if (from > to || (long) to - from >= MAX_BATCH) throw new IllegalArgumentException();
+                for (int id = from; id <= to; id++) ids.add(id);
             }
+        } catch (RuntimeException e) {
+            ids.clear();
+        }
+        if (ids.isEmpty() || ids.size() > MAX_BATCH) {
+            ctx.status(400).result(gson.toJson(Map.of("error",
+                    "Expected {\"ids\": [...]} or {\"from\": n, \"to\": m} with 1 to " + MAX_BATCH + " books")));
+            return;
+        }
 
-            Path dir = Paths.get(bookPath);
-            Files.createDirectories(dir);
-
-            Files.write(dir.resolve("raw.txt"), response.body().getBytes());
+        long start = System.nanoTime();
+        CompletionService<Downloader.Result> completion = new ExecutorCompletionService<>(downloadPool);
+        List<Future<Downloader.Result>> futures = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            futures.add(completion.submit(() -> {
+                try {
+                    return fetch(id);
+                } catch (RuntimeException e) {
+                    return new Downloader.Result(id, "failed", null, 0, null, 1, e.toString());
+                }
+            }));
+        }
 
-            JsonObject result = new JsonObject();
-            result.addProperty("book_id", bookId);
-            result.addProperty("status", "downloaded");
-            result.addProperty("path", bookPath);
-            ctx.result(gson.toJson(result));
+        ctx.contentType("application/x-ndjson");
+        Map<String, Integer> counts = new TreeMap<>();
+        long bytes = 0;
+        try {
+            OutputStream out = ctx.outputStream();
+            for (int i = 0; i < ids.size(); i++) {
+                Downloader.Result r = completion.take().get();
+                counts.merge(r.status, 1, Integer::sum);
+                bytes += r.bytes;
+                out.write((gson.toJson(r.toMap()) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).result(gson.toJson(Map.of("error", "Download failed: " + e.getMessage())));
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("summary", true);
+            summary.put("books_total", ids.size());
+            summary.put("downloaded", counts.getOrDefault("downloaded", 0));
+            summary.put("not_found", counts.getOrDefault("not_found", 0));
+            summary.put("failed", counts.getOrDefault("failed", 0));
+            summary.put("bytes", bytes);
+            summary.put("elapsed_time", String.format("%.2fs", elapsed));
+            summary.put("books_per_s", Math.round(ids.size() / elapsed * 100) / 100.0);
+            summary.put("throughput_mb_s", Math.round(bytes / 1048576.0 / elapsed * 100) / 100.0);
+            out.write((gson.toJson(summary) + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            // client went away or we were shut down: stop whatever hasn't started yet
+            for (Future<Downloader.Result> f : futures) f.cancel(true);
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
         }
     }
 
@@ -88,51 +185,68 @@ public class App {
         String bookIdStr = ctx.pathParam("book_id");
         try {
             int bookId = Integer.parseInt(bookIdStr);
-            boolean exists = findBookInDatalake(bookId);
-            String status = exists ? "available" : "not found";
-            ctx.result(gson.toJson(Map.of("book_id", bookId, "status", status)));
+            Catalog.Entry entry = catalog.get(bookId);
+            if (entry == null) {
+                ctx.result(gson.toJson(Map.of("book_id", bookId, "status", "not found")));
+                return;
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("book_id", bookId);
+            result.put("status", "available");
+            result.put("path", entry.path);
+            result.put("bytes", entry.bytes);
+            result.put("sha256", entry.sha256);
+            result.put("ingested_at", entry.ingestedAt);
+            ctx.result(gson.toJson(result));
         } catch (NumberFormatException e) {
             ctx.status(400).result(gson.toJson(Map.of("error", "Invalid book_id")));
         }
     }
 
-    private static void handleList(Context ctx) {
-        Set<Integer> books = new HashSet<>();
-        try (Stream<Path> paths = Files.walk(Paths.get(DATALAKE_ROOT))) {
-            paths.filter(Files::isDirectory)
-                    .map(path -> {
-                        String dirName = path.getFileName().toString();
-                        try {
-                            return Integer.parseInt(dirName);
-                        } catch (NumberFormatException e) {
-                            return null;
-                        }
-                    })
-                    .filter(Objects::nonNull)
-                    .forEach(books::add);
-        } catch (IOException e) {
-            ctx.status(500).result(gson.toJson(Map.of("error", "Failed to scan datalake")));
+    /**
+     * Streams the catalog's book ids in ascending order. {@code limit} caps the page, and a page
+     * that stops early ends with a {@code next_cursor}: passed back as {@code cursor}, it lists
+     * the ids after that page, so the whole catalog can be walked without holding it in memory.
+     */
+    private static void handleList(Context ctx) throws IOException {
+        int limit;
+        Integer after = null;
+        try {
+            String l = ctx.queryParam("limit");
+            limit = l == null ? Integer.MAX_VALUE : Math.max(1, Integer.parseInt(l));
+            String cursor = ctx.queryParam("cursor");
+            if (cursor != null && !cursor.isEmpty()) after = Integer.parseInt(cursor);
+        } catch (NumberFormatException e) {
+            ctx.status(400).result(gson.toJson(Map.of("error", "Invalid limit or cursor")));
             return;
         }
 
-        List<Integer> sortedBooks = new ArrayList<>(books);
-        Collections.sort(sortedBooks);
-
-        JsonObject result = new JsonObject();
-        result.addProperty("count", sortedBooks.size());
-        result.add("books", gson.toJsonTree(sortedBooks));
-        ctx.result(gson.toJson(result));
+        NavigableSet<Integer> ids = after == null ? catalog.ids() : catalog.ids().tailSet(after, false);
+        JsonWriter w = gson.newJsonWriter(new BufferedWriter(
+                new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8), 16 * 1024));
+        w.beginObject();
+        w.name("count").value(catalog.size());
+        w.name("books").beginArray();
+        Iterator<Integer> it = ids.iterator();
+        int last = 0;
+        for (int n = 0; n < limit && it.hasNext(); n++) {
+            last = it.next();
+            w.value(last);
+        }
+        w.endArray();
+        if (it.hasNext()) w.name("next_cursor").value(String.valueOf(last));
+        w.endObject();
+        w.flush();
     }
 
-    private static boolean findBookInDatalake(int bookId) {
-        try (Stream<Path> paths = Files.walk(Paths.get(DATALAKE_ROOT))) {
-            return paths.anyMatch(path ->
-                    path.getFileName() != null &&
-                            path.getFileName().toString().equals(String.valueOf(bookId)) &&
-                            Files.isDirectory(path)
-            );
+    private static void handleRepair(Context ctx) {
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, Object> result = new LinkedHashMap<>(catalog.repair());
+            result.put("elapsed_time", String.format("%.2fs", (System.currentTimeMillis() - start) / 1000.0));
+            ctx.result(gson.toJson(result));
         } catch (IOException e) {
-            return false;
+            ctx.status(500).result(gson.toJson(Map.of("error", "Catalog repair failed: " + e.getMessage())));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,215 @@
+package com.example.ingestion;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Persistent index of the datalake: book id to raw file, text size, SHA-256 and ingest time.
+ * <p>
+ * Stored in the datalake root as {@code CATALOG} (a compacted snapshot) plus
+ * {@code CATALOG.log}, an append-only log of changes since the snapshot. Both use one
+ * tab-separated line per book, {@code id path bytes sha256 ingested_at}, with paths relative
+ * to the datalake root; a line holding only {@code id -} removes the book. The log is folded
+ * into a fresh snapshot every {@link #COMPACT_EVERY} records and after a repair. The
+ * indexing service reads the same files.
+ */
+public class Catalog {
+
+    static final String SNAPSHOT = "CATALOG";
+    static final String LOG = "CATALOG.log";
+    static final int COMPACT_EVERY = 10_000;
+
+    public static final class Entry {
+        public final int bookId;
+        public final String path;
+        public final long bytes;
+        public final String sha256;
+        public final String ingestedAt;
+
+        public Entry(int bookId, String path, long bytes, String sha256, String ingestedAt) {
+            this.bookId = bookId;
+            this.path = path;
+            this.bytes = bytes;
+            this.sha256 = sha256;
+            this.ingestedAt = ingestedAt;
+        }
+
+        String toLine() {
+            return bookId + "\t" + path + "\t" + bytes + "\t" + sha256 + "\t" + ingestedAt;
+        }
+    }
+
+    private final Path root;
+    private final ConcurrentSkipListMap<Integer, Entry> entries = new ConcurrentSkipListMap<>();
+    private int logRecords;
+
+    public Catalog(Path root) {
+        this.root = root;
+    }
+
+    /** Loads the snapshot and log, or imports an existing datalake the first time. */
+    public synchronized void open() throws IOException {
+        Files.createDirectories(root);
+        Path snapshot = root.resolve(SNAPSHOT);
+        Path log = root.resolve(LOG);
+        if (!Files.exists(snapshot) && !Files.exists(log)) {
+            for (Entry e : scan().values()) entries.put(e.bookId, hash(e));
+            compact();
+            System.out.println("Catalog: imported " + entries.size() + " books from " + root);
+            return;
+        }
+        if (Files.exists(snapshot)) replay(snapshot);
+        if (Files.exists(log)) logRecords = replay(log);
+    }
+
+    private int replay(Path file) throws IOException {
+        int n = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] f = line.split("\t");
+            try {
+                int id = Integer.parseInt(f[0]);
+                if (f.length == 2 && f[1].equals("-")) entries.remove(id);
+                else if (f.length == 5) entries.put(id, new Entry(id, f[1], Long.parseLong(f[2]), f[3], f[4]));
+                else continue;
+                n++;
+            } catch (NumberFormatException ignored) {
+                // torn write at the end of the log
+            }
+        }
+        return n;
+    }
+
+    public Entry get(int bookId) {
+        return entries.get(bookId);
+    }
+
+    /** Book ids in ascending order. */
+    public NavigableSet<Integer> ids() {
+        return Collections.unmodifiableNavigableSet(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /** Records a freshly written raw file; {@code file} must live under the datalake root. */
+    public Entry record(int bookId, Path file, long bytes, String sha256) throws IOException {
+        Entry e = new Entry(bookId, relative(file), bytes, sha256, Instant.now().toString());
+        synchronized (this) {
+            append(e.toLine());
+            entries.put(bookId, e);
+        }
+        return e;
+    }
+
+    private void append(String line) throws IOException {
+        Files.writeString(root.resolve(LOG), line + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (++logRecords >= COMPACT_EVERY) compact();
+    }
+
+    /** Writes every entry to a new snapshot and starts an empty log. */
+    private void compact() throws IOException {
+        Path tmp = root.resolve(SNAPSHOT + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Entry e : entries.values()) {
+                w.write(e.toLine());
+                w.newLine();
+            }
+        }
+        Files.move(tmp, root.resolve(SNAPSHOT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // replaying a log already folded into the snapshot is harmless, so a crash here loses nothing
+        Files.deleteIfExists(root.resolve(LOG));
+        logRecords = 0;
+    }
+
+    /**
+     * Reconciles the catalog with the disk: adds raw files it doesn't know about, drops
+     * entries whose file is gone and follows books that were re-ingested elsewhere.
+     *
+     * @return counts of added, removed and updated books
+     */
+    public synchronized Map<String, Integer> repair() throws IOException {
+        Map<Integer, Entry> onDisk = scan();
+        int added = 0, removed = 0, updated = 0;
+        for (Entry current : new ArrayList<>(entries.values())) {
+            if (!onDisk.containsKey(current.bookId)) {
+                append(current.bookId + "\t-");
+                entries.remove(current.bookId);
+                removed++;
+            }
+        }
+        for (Entry found : onDisk.values()) {
+            Entry current = entries.get(found.bookId);
+            if (current != null && current.path.equals(found.path)) continue;
+            Entry hashed = hash(found);
+            append(hashed.toLine());
+            entries.put(hashed.bookId, hashed);
+            if (current == null) added++;
+            else updated++;
+        }
+        compact();
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("added", added);
+        counts.put("removed", removed);
+        counts.put("updated", updated);
+        counts.put("books", entries.size());
+        return counts;
+    }
+
+    /**
+     * Walks the datalake for raw files, keeping the newest hour directory when a book was
+     * ingested more than once. Entries come back without size or hash.
+     */
+    private Map<Integer, Entry> scan() throws IOException {
+        Map<Integer, Entry> found = new HashMap<>();
+        try (Stream<Path> s = Files.walk(root)) {
+            s.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.equals("raw.txt") || name.equals("raw.txt.gz");
+            }).forEach(p -> {
+                try {
+                    int id = Integer.parseInt(p.getParent().getFileName().toString());
+                    Entry e = new Entry(id, relative(p), -1, "-", Files.getLastModifiedTime(p).toInstant().toString());
+                    found.merge(id, e, (a, b) -> a.path.compareTo(b.path) >= 0 ? a : b);
+                } catch (NumberFormatException | IOException ignored) {}
+            });
+        } catch (NoSuchFileException e) {
+            return found;
+        }
+        return found;
+    }
+
+    private Entry hash(Entry e) throws IOException {
+        Path file = root.resolve(e.path);
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        long bytes = 0;
+        try (InputStream raw = Files.newInputStream(file);
+             InputStream in = new DigestInputStream(e.path.endsWith(".gz") ? new GZIPInputStream(raw, 64 * 1024) : raw, sha256)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) bytes += n;
+        }
+        return new Entry(e.bookId, e.path, bytes, HexFormat.of().formatHex(sha256.digest()), e.ingestedAt);
+    }
+
+    private String relative(Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+}
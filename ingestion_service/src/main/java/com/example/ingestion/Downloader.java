@@ -0,0 +1,189 @@
+package com.example.ingestion;
+
+import com.example.metrics.Metrics;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Fetches one book from Gutenberg into the datalake. Connection errors, timeouts, 429 and
+ * 5xx responses are retried with exponential backoff and full jitter (honouring
+ * Retry-After when present); any other non-200 answer counts as "not found".
+ */
+public class Downloader {
+
+    private static final DateTimeFormatter HOUR_DIR = DateTimeFormatter.ofPattern("yyyyMMdd/HH");
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+    private static final Metrics.Timer rateLimitTimer = Metrics.stage("rate_limit");
+    private static final Metrics.Timer downloadTimer = Metrics.stage("download");
+    private static final LongAdder bytesDownloaded = Metrics.counter("downloaded_bytes_total",
+            "Book bytes received from Gutenberg.");
+    private static final LongAdder bytesWritten = Metrics.counter("datalake_bytes_written_total",
+            "Bytes written to the datalake, after compression.");
+
+    private final HttpClient client;
+    private final String baseUrl;
+    private final Path datalake;
+    private final boolean gzip;
+    private final RateLimiter limiter;
+    private final int maxRetries;
+    private final long backoffMillis;
+
+    public Downloader(HttpClient client, String baseUrl, Path datalake, boolean gzip,
+                      RateLimiter limiter, int maxRetries, long backoffMillis) {
+        this.client = client;
+        this.baseUrl = baseUrl;
+        this.datalake = datalake;
+        this.gzip = gzip;
+        this.limiter = limiter;
+        this.maxRetries = maxRetries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    public static final class Result {
+        public final int bookId;
+        public final String status;
+        public final Path path;
+        public final long bytes;
+        public final String sha256;
+        public final int attempts;
+        public final String error;
+
+        Result(int bookId, String status, Path path, long bytes, String sha256, int attempts, String error) {
+            this.bookId = bookId;
+            this.status = status;
+            this.path = path;
+            this.bytes = bytes;
+            this.sha256 = sha256;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        public boolean downloaded() { return "downloaded".equals(status); }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("book_id", bookId);
+            m.put("status", status);
+            if (path != null) {
+                m.put("path", path.getParent().toString());
+                m.put("file", path.getFileName().toString());
+                m.put("bytes", bytes);
+                m.put("sha256", sha256);
+            }
+            m.put("attempts", attempts);
+            if (error != null) m.put("error", error);
+            return m;
+        }
+    }
+
+    public Result download(int bookId) throws InterruptedException {
+        URI uri = URI.create(String.format("%s/files/%d/%d-0.txt", baseUrl, bookId, bookId));
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(uri)
+                .timeout(Duration.ofSeconds(10))
+                .build();
+
+        String lastError = null;
+        for (int attempt = 1; ; attempt++) {
+            long waiting = System.nanoTime();
+            limiter.acquire(uri.getHost());
+            rateLimitTimer.since(waiting);
+            long retryAfterMillis = 0;
+            try {
+                long start = System.nanoTime();
+                HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                int code = response.statusCode();
+                if (code == 200) {
+                    String hour = LocalDateTime.now().format(HOUR_DIR);
+                    Result r = store(bookId, response.body(), datalake.resolve(hour).resolve(String.valueOf(bookId)), attempt);
+                    downloadTimer.since(start);
+                    return r;
+                }
+                response.body().close();
+                if (code != 429 && code < 500) {
+                    return new Result(bookId, "not_found", null, 0, null, attempt, null);
+                }
+                lastError = "HTTP " + code;
+                retryAfterMillis = response.headers().firstValue("Retry-After").map(Downloader::parseRetryAfter).orElse(0L);
+            } catch (IOException e) {
+                lastError = e.getClass().getSimpleName() + ": " + e.getMessage();
+            }
+
+            if (attempt > maxRetries) {
+                return new Result(bookId, "failed", null, 0, null, attempt, lastError);
+            }
+            long cap = Math.min(MAX_BACKOFF_MILLIS, backoffMillis << Math.min(attempt - 1, 20));
+            Thread.sleep(Math.max(retryAfterMillis, ThreadLocalRandom.current().nextLong(cap + 1)));
+        }
+    }
+
+    private static long parseRetryAfter(String value) {
+        try {
+            return Math.min(MAX_BACKOFF_MILLIS, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            return 0; // HTTP-date form, fall back to our own backoff
+        }
+    }
+
+    /**
+     * Streams the body into a temporary file inside the datalake, hashing and counting the
+     * uncompressed bytes on the way, then renames it to raw.txt (or raw.txt.gz) in one step
+     * so readers never see a partial book.
+     */
+    private Result store(int bookId, InputStream body, Path dir, int attempts) throws IOException {
+        Path tmpDir = datalake.resolve(".tmp");
+        Files.createDirectories(tmpDir);
+        Path tmp = Files.createTempFile(tmpDir, bookId + "-", ".part");
+
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        long bytes = 0;
+        try (InputStream in = body;
+             OutputStream file = Files.newOutputStream(tmp);
+             OutputStream out = gzip ? new GZIPOutputStream(file, 64 * 1024) : new BufferedOutputStream(file, 64 * 1024)) {
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                sha256.update(buf, 0, n);
+                out.write(buf, 0, n);
+                bytes += n;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        bytesDownloaded.add(bytes);
+        bytesWritten.add(Files.size(tmp));
+
+        Files.createDirectories(dir);
+        Path target = dir.resolve(gzip ? "raw.txt.gz" : "raw.txt");
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return new Result(bookId, "downloaded", target, bytes, HexFormat.of().formatHex(sha256.digest()), attempts, null);
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.ingestion;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Token bucket per upstream host, so concurrent downloads don't hammer a single mirror.
+ * {@link #acquire} blocks the calling worker until its host has a token.
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /** A rate of 0 or less disables limiting. */
+    public RateLimiter(double permitsPerSecond, double burst) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+    }
+
+    public void acquire(String host) throws InterruptedException {
+        if (permitsPerSecond <= 0) return;
+        Bucket bucket = buckets.computeIfAbsent(host, h -> new Bucket());
+        long waitNanos;
+        while ((waitNanos = bucket.tryTake()) > 0) {
+            Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    private final class Bucket {
+        private double tokens = burst;
+        private long refilledAt = System.nanoTime();
+
+        /** Takes a token and returns 0, or returns how long to wait before the next one. */
+        synchronized long tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - refilledAt) * permitsPerSecond / 1e9);
+            refilledAt = now;
+            if (tokens >= 1) {
+                tokens -= 1;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / permitsPerSecond * 1e9);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.metrics;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Process-wide latency histograms, counters and gauges, served on {@code GET /metrics} in the
+ * Prometheus text format. Latencies are recorded in microseconds into HdrHistogram
+ * {@link Recorder}s, which never block the recording thread; a scrape folds what was
+ * recorded since the previous scrape into a cumulative histogram and reports it as a
+ * summary (quantiles, sum and count).
+ * <p>
+ * {@link #install} times every request by method, route and status. Internal stages are
+ * timed with {@link #stage}; the stages a request ran on its own thread are also sent back
+ * in a {@code Server-Timing} header. The caller's {@code X-Trace-Id} is echoed (one is made
+ * up when missing) and printed with requests slower than the configured threshold.
+ * <p>
+ * Every service uses this one class. Metric names are registered without the service's
+ * prefix, since services create their timers in static initializers; {@link #install} sets
+ * the prefix and the scrape applies it.
+ */
+public final class Metrics {
+
+    public static final String TRACE_HEADER = "X-Trace-Id";
+    private static volatile String prefix = "";
+    private static final String REQUEST = "metrics.request";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, Family> families = new ConcurrentSkipListMap<>();
+    private static final ThreadLocal<Request> current = new ThreadLocal<>();
+
+    private Metrics() {}
+
+    /** Latency of one operation; {@link #record} is safe and cheap from any thread. */
+    public static final class Timer {
+        private final String stage;
+        private final Recorder recorder = new Recorder(3);
+        private final LongAdder sumNanos = new LongAdder();
+        private Histogram interval;
+        private Histogram total; // guarded by this
+
+        private Timer(String stage) {
+            this.stage = stage;
+        }
+
+        public void record(long nanos) {
+            recorder.recordValue(Math.max(1, nanos / 1000));
+            sumNanos.add(nanos);
+            if (stage != null) {
+                Request r = current.get();
+                if (r != null) r.stage(stage, nanos);
+            }
+        }
+
+        /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+        public void since(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        private synchronized Histogram snapshot() {
+            interval = recorder.getIntervalHistogram(interval);
+            if (total == null) total = new Histogram(3);
+            total.add(interval);
+            return total;
+        }
+
+        /** Count, mean and percentiles in milliseconds since start, for JSON status pages. */
+        public synchronized Map<String, Object> summary() {
+            Histogram h = snapshot();
+            long count = h.getTotalCount();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("count", count);
+            m.put("mean_ms", count == 0 ? 0.0 : millis(sumNanos.sum() / 1000.0 / count));
+            m.put("p50_ms", count == 0 ? 0.0 : millis(h.getValueAtPercentile(50)));
+            m.put("p90_ms", count == 0 ? 0.0 : millis(h.getValueAtPercentile(90)));
+            m.put("p99_ms", count == 0 ? 0.0 : millis(h.getValueAtPercentile(99)));
+            m.put("max_ms", count == 0 ? 0.0 : millis(h.getMaxValue()));
+            return m;
+        }
+
+        private static double millis(double micros) {
+            return Math.round(micros / 10) / 100.0;
+        }
+    }
+
+    private static final class Family {
+        final String type;
+        final String help;
+        // rendered label set ("" for none) to Timer, LongAdder or DoubleSupplier
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /** The in-flight request on this thread: its trace id and the stages it ran. */
+    private static final class Request {
+        final String traceId;
+        final long start = System.nanoTime();
+        final StringBuilder timing = new StringBuilder();
+
+        Request(String traceId) {
+            this.traceId = traceId;
+        }
+
+        void stage(String name, long nanos) {
+            if (timing.length() > 0) timing.append(", ");
+            timing.append(name).append(";dur=").append(Math.round(nanos / 1e4) / 100.0);
+        }
+    }
+
+    private static Family family(String name, String type, String help) {
+        return families.computeIfAbsent(name, n -> new Family(type, help));
+    }
+
+    /** Timer of an internal stage, reported as {@code stage_seconds{stage="<name>"}}. */
+    public static Timer stage(String name) {
+        return (Timer) family("stage_seconds", "summary", "Time spent in internal stages.")
+                .series.computeIfAbsent("stage=\"" + name + "\"", k -> new Timer(name));
+    }
+
+    /**
+     * A timer of its own family, reported as {@code <name>{<labels>}}.
+     *
+     * @param labels label names and values, alternating
+     */
+    public static Timer timer(String name, String help, String... labels) {
+        StringBuilder rendered = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (rendered.length() > 0) rendered.append(',');
+            rendered.append(labels[i]).append("=\"").append(labels[i + 1]).append('"');
+        }
+        return (Timer) family(name, "summary", help).series.computeIfAbsent(rendered.toString(), k -> new Timer(null));
+    }
+
+    /** A monotonic counter; {@code name} should end in {@code _total}. */
+    public static LongAdder counter(String name, String help) {
+        return (LongAdder) family(name, "counter", help).series.computeIfAbsent("", k -> new LongAdder());
+    }
+
+    /** A value read at scrape time. */
+    public static void gauge(String name, String help, DoubleSupplier value) {
+        family(name, "gauge", help).series.put("", value);
+    }
+
+    /** The trace id of the request, as echoed in its {@code X-Trace-Id} response header. */
+    public static String traceId(Context ctx) {
+        Request r = ctx.attribute(REQUEST);
+        return r == null ? null : r.traceId;
+    }
+
+    /**
+     * Times every request, handles trace ids and serves {@code GET /metrics}.
+     *
+     * @param prefix prepended to every metric name, e.g. {@code "search_"}
+     */
+    public static void install(Javalin app, String prefix, long slowRequestMillis) {
+        Metrics.prefix = prefix;
+        app.before(ctx -> {
+            String traceId = ctx.header(TRACE_HEADER);
+            if (traceId == null || traceId.isBlank() || traceId.length() > 64) {
+                traceId = String.format("%016x", ThreadLocalRandom.current().nextLong());
+            }
+            Request r = new Request(traceId);
+            ctx.attribute(REQUEST, r);
+            ctx.header(TRACE_HEADER, traceId);
+            current.set(r);
+        });
+        app.after(ctx -> {
+            current.remove();
+            Request r = ctx.attribute(REQUEST);
+            if (r == null) return;
+            long nanos = System.nanoTime() - r.start;
+            // a handler that ran its stages elsewhere may have set the header itself
+            String timing = r.timing.length() > 0 ? r.timing.toString() : ctx.res().getHeader("Server-Timing");
+            if (r.timing.length() > 0) ctx.header("Server-Timing", timing);
+            String labels = "method=\"" + ctx.method() + "\",route=\"" + route(ctx) + "\",status=\"" + ctx.statusCode() + "\"";
+            ((Timer) family("http_request_seconds", "summary", "Time to answer HTTP requests.")
+                    .series.computeIfAbsent(labels, k -> new Timer(null))).record(nanos);
+            if (nanos >= slowRequestMillis * 1_000_000) {
+                System.out.printf("Slow request trace=%s %s %s -> %d in %d ms [%s]%n", r.traceId, ctx.method(),
+                        ctx.path(), ctx.statusCode(), nanos / 1_000_000, timing == null ? "" : timing);
+            }
+        });
+        app.get("/metrics", ctx -> ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(scrape()));
+    }
+
+    /** The route pattern rather than the path, so book ids do not each get a series. */
+    private static String route(Context ctx) {
+        // Javalin reports a description instead of a path when nothing matched (404/405)
+        String route = ctx.endpointHandlerPath();
+        return route == null || !route.startsWith("/") ? "unmatched" : route;
+    }
+
+    static String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        families.forEach((unprefixed, f) -> {
+            String name = prefix + unprefixed;
+            out.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+            f.series.forEach((labels, s) -> {
+                if (s instanceof Timer) {
+                    Timer t = (Timer) s;
+                    Histogram h = t.snapshot();
+                    long count = h.getTotalCount();
+                    for (double q : QUANTILES) {
+                        String ql = (labels.isEmpty() ? "" : labels + ",") + "quantile=\"" + q + "\"";
+                        sample(out, name, ql, count == 0 ? Double.NaN : h.getValueAtPercentile(q * 100) / 1e6);
+                    }
+                    sample(out, name + "_sum", labels, t.sumNanos.sum() / 1e9);
+                    sample(out, name + "_count", labels, count);
+                } else if (s instanceof LongAdder) {
+                    sample(out, name, labels, ((LongAdder) s).sum());
+                } else {
+                    sample(out, name, labels, ((DoubleSupplier) s).getAsDouble());
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ');
+        if (Double.isNaN(value)) out.append("NaN");
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15) out.append((long) value);
+        else out.append(value);
+        out.append('\n');
+    }
+}
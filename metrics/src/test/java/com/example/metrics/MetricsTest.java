@@ -0,0 +1,39 @@
+package com.example.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void summaryReportsMillisecondsWithoutOverflowBuckets() {
+        Metrics.Timer t = Metrics.timer("summary_test_seconds", "Test timer.", "downstream", "a");
+        assertEquals(0L, t.summary().get("count"));
+        for (int i = 1; i <= 100; i++) t.record(i * 1_000_000L);
+        // far beyond the old fixed buckets, which reported such a p99 as Long.MAX_VALUE
+        t.record(120_000_000_000L);
+
+        Map<String, Object> m = t.summary();
+        assertEquals(101L, m.get("count"));
+        assertEquals(51.0, (double) m.get("p50_ms"), 0.1);
+        assertEquals(100.0, (double) m.get("p99_ms"), 0.1);
+        assertEquals(120_000.0, (double) m.get("max_ms"), 120);
+        assertEquals((5050 + 120_000) / 101.0, (double) m.get("mean_ms"), 0.01);
+    }
+
+    @Test
+    void labelledTimersAreSeparateSeries() {
+        Metrics.Timer a = Metrics.timer("labels_test_seconds", "Test timer.", "downstream", "a");
+        Metrics.Timer b = Metrics.timer("labels_test_seconds", "Test timer.", "downstream", "b");
+        assertNotSame(a, b);
+        assertSame(a, Metrics.timer("labels_test_seconds", "Test timer.", "downstream", "a"));
+        a.record(2_000_000);
+
+        String scrape = Metrics.scrape();
+        assertTrue(scrape.contains("labels_test_seconds_count{downstream=\"a\"} 1\n"), scrape);
+        assertTrue(scrape.contains("labels_test_seconds_count{downstream=\"b\"} 0\n"), scrape);
+    }
+}
@@ -1,118 +1,147 @@
 package com.example.search;
 
+import com.example.metrics.Metrics;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
-import java.io.IOException;
-import java.lang.reflect.Type;
+import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class App {
 
     private static final Gson gson = new Gson();
-    private static final String DATAMART_ROOT = "datamart/indexes";
+    private static final String DATAMART_ROOT = "datamart/segments";
+    // a shard serves only the books the indexer routed to datamart/segments/shard-<SHARD_ID>
+    private static final int SHARD_ID = Integer.parseInt(env("SHARD_ID", "0"));
+    private static final int SHARD_COUNT = Integer.parseInt(env("SHARD_COUNT", "1"));
+    private static final SegmentIndex index = new SegmentIndex(SHARD_COUNT > 1
+            ? Paths.get(DATAMART_ROOT, "shard-" + SHARD_ID) : Paths.get(DATAMART_ROOT));
+    private static final Coordinator coordinator = new Coordinator(
+            Arrays.stream(env("SEARCH_SHARDS", "").split(",")).map(String::trim).filter(s -> !s.isEmpty())
+                    .collect(Collectors.toList()),
+            Long.parseLong(env("SEARCH_SHARD_DEADLINE_MS", "1000")));
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 1000;
+    private static final QueryCache cache = new QueryCache(Long.parseLong(env("SEARCH_CACHE_MB", "64")) * 1024 * 1024);
+    private static final Searcher searcher = new Searcher(index, cache);
+    // concurrent /search requests adapt between the bounds to keep latency under the target
+    private static final ConcurrencyLimiter limiter = new ConcurrencyLimiter(
+            Integer.parseInt(env("SEARCH_CONCURRENCY", String.valueOf(2 * Runtime.getRuntime().availableProcessors()))),
+            Integer.parseInt(env("SEARCH_CONCURRENCY_MIN", "1")),
+            Integer.parseInt(env("SEARCH_CONCURRENCY_MAX", "200")),
+            Long.parseLong(env("SEARCH_LATENCY_TARGET_MS", "250")));
+    private static final int DEFAULT_BUDGET_MS = Integer.parseInt(env("SEARCH_BUDGET_MS", "0"));
+    private static final int MAX_BUDGET_MS = 60_000;
+    private static final LongAdder rejected = Metrics.counter("rejected_total",
+            "Searches turned away by the concurrency limit.");
 
     public static void main(String[] args) {
+        index.addListener(cache::invalidateBefore);
+        index.refresh();
+        index.startWatching(5);
+
         Javalin app = Javalin.create(config -> {
             config.http.defaultContentType = "application/json";
-        }).start(7003);
+        }).start(Integer.parseInt(env("SEARCH_PORT", "7003")));
+        Metrics.install(app, "search_", Long.parseLong(env("SLOW_REQUEST_MS", "1000")));
+        Metrics.gauge("index_books", "Books in the current index snapshot.", () -> index.snapshot().docCount());
+        Metrics.gauge("index_segments", "Segments in the current index snapshot.", () -> index.snapshot().segmentCount());
+        Metrics.gauge("concurrency_limit", "Current limit on concurrent searches.", limiter::limit);
+        Metrics.gauge("in_flight", "Searches being answered.", limiter::inFlight);
 
         app.get("/search", App::handleSearch);
+        app.get("/search/stats", App::handleStats);
+        app.get("/search/all", App::handleScatter);
     }
 
-    private static void handleSearch(Context ctx) {
-        String query = Optional.ofNullable(ctx.queryParam("q")).orElse("").toLowerCase();
-        String authorFilter = ctx.queryParam("author");
-        String languageFilter = ctx.queryParam("language");
-        String yearStr = ctx.queryParam("year");
-
-        Integer yearFilter = null;
-        if (yearStr != null) {
-            try {
-                yearFilter = Integer.parseInt(yearStr);
-            } catch (NumberFormatException ignored) {}
-        }
-
-        List<Map<String, Object>> results = new ArrayList<>();
-        List<Path> jsonFiles = listJsonFiles(Paths.get(DATAMART_ROOT));
-
-        for (Path jsonFile : jsonFiles) {
-            try {
-                String content = Files.readString(jsonFile, StandardCharsets.UTF_8);
-                Type type = new TypeToken<Map<String, Object>>() {}.getType();
-                Map<String, Object> book = gson.fromJson(content, type);
-
-                Optional<Map<String, Object>> filtered = buildResult(book, query, authorFilter, yearFilter);
-                filtered.ifPresent(results::add);
+    private static String env(String name, String def) {
+        String v = System.getenv(name);
+        return v == null || v.isBlank() ? def : v;
+    }
 
-            } catch (IOException e) {
-                System.err.println("Error reading file " + jsonFile + ": " + e.getMessage());
-            }
+    /** Coordinator endpoint: same parameters as /search, answered by every shard in SEARCH_SHARDS. */
+    private static void handleScatter(Context ctx) {
+        if (coordinator.shards().isEmpty()) {
+            ctx.status(404).result(gson.toJson(Map.of("error", "No shards configured (SEARCH_SHARDS)")));
+            return;
         }
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("query", query);
-        response.put("filters", buildFilters(authorFilter, languageFilter, yearFilter));
-        response.put("count", results.size());
-        response.put("results", results);
-
-        ctx.result(gson.toJson(response));
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String name : List.of("q", "author", "language", "year", "op", "match", "budget_ms")) params.put(name, ctx.queryParam(name));
+        int offset = clamp(ctx.queryParam("offset"), 0, 0, MAX_LIMIT);
+        // the shards are asked for offset+limit hits, which they clamp to MAX_LIMIT
+        int limit = Math.min(clamp(ctx.queryParam("limit"), DEFAULT_LIMIT, 0, MAX_LIMIT), MAX_LIMIT - offset);
+        long deadline = clamp(ctx.queryParam("deadline_ms"), 0, 0, Integer.MAX_VALUE);
+        ctx.result(gson.toJson(coordinator.search(params, offset, limit, deadline, Metrics.traceId(ctx))));
     }
 
-    private static Optional<Map<String, Object>> buildResult(Map<String, Object> book, String query, String authorFilter, Integer yearFilter) {
-        if (book == null || !book.containsKey("metadata") || !book.containsKey("top_terms"))
-            return Optional.empty();
-
-        Map<String, Object> meta = (Map<String, Object>) book.get("metadata");
-        Map<String, Double> topTerms = (Map<String, Double>) book.get("top_terms");
-
-        if (authorFilter != null && meta.containsKey("author") && !meta.get("author").toString().equalsIgnoreCase(authorFilter))
-            return Optional.empty();
-
-        if (yearFilter != null && meta.containsKey("year") && !meta.get("year").toString().equals(String.valueOf(yearFilter)))
-            return Optional.empty();
-
-        String[] searchTerms = query.split("\\s+");
-        Map<String, Double> matches = new LinkedHashMap<>();
-
-        for (String term : searchTerms) {
-            topTerms.forEach((word, freq) -> {
-                if (word.toLowerCase().contains(term)) {
-                    matches.put(word, freq);
-                }
-            });
+    private static void handleStats(Context ctx) {
+        SegmentIndex.Snapshot snapshot = index.snapshot();
+        Map<String, Object> idx = new LinkedHashMap<>();
+        idx.put("generation", snapshot.generation());
+        idx.put("index_generation", snapshot.indexGeneration());
+        idx.put("segments", snapshot.segmentCount());
+        idx.put("books", snapshot.docCount());
+        if (SHARD_COUNT > 1) {
+            idx.put("shard_id", SHARD_ID);
+            idx.put("shard_count", SHARD_COUNT);
         }
 
-        if (!query.isEmpty() && matches.isEmpty()) return Optional.empty();
-
-        Map<String, Object> result = new LinkedHashMap<>();
-        result.put("book_id", book.get("book_id"));
-        result.put("title", meta.getOrDefault("title", "Unknown"));
-        result.put("author", meta.getOrDefault("author", "Unknown"));
-        result.put("matches", matches);
-
-        return Optional.of(result);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("index", idx);
+        stats.put("cache", cache.stats());
+        Map<String, Object> admission = new LinkedHashMap<>();
+        admission.put("limit", limiter.limit());
+        admission.put("in_flight", limiter.inFlight());
+        admission.put("rejected", rejected.sum());
+        admission.put("timed_out", Searcher.timedOut());
+        stats.put("admission", admission);
+        ctx.result(gson.toJson(stats));
     }
 
-    private static List<Path> listJsonFiles(Path dir) {
-        try (Stream<Path> files = Files.walk(dir)) {
-            return files.filter(p -> p.toString().endsWith(".json")).collect(Collectors.toList());
-        } catch (IOException e) {
-            return List.of();
+    /**
+     * Answers within the concurrency limit or not at all: over the limit the request gets an
+     * immediate 503 with Retry-After. {@code budget_ms} (default {@code SEARCH_BUDGET_MS}, 0 for
+     * none) stops scoring early and returns the best hits found so far. The page is streamed
+     * to the client as it is rendered.
+     */
+    private static void handleSearch(Context ctx) throws IOException {
+        if (!limiter.tryAcquire()) {
+            rejected.increment();
+            ctx.status(503).header("Retry-After", "1")
+                    .result(gson.toJson(Map.of("error", "Search service overloaded, retry later")));
+            return;
+        }
+        long start = System.nanoTime();
+        long deadline = 0;
+        try {
+            Map<String, String> params = new HashMap<>();
+            for (String name : List.of("q", "author", "language", "year", "op", "match", "cursor")) params.put(name, ctx.queryParam(name));
+            int limit = clamp(ctx.queryParam("limit"), DEFAULT_LIMIT, 0, MAX_LIMIT);
+            int offset = clamp(ctx.queryParam("offset"), 0, 0, MAX_LIMIT);
+            int budget = clamp(ctx.queryParam("budget_ms"), DEFAULT_BUDGET_MS, 0, MAX_BUDGET_MS);
+            if (budget > 0) deadline = start + budget * 1_000_000L;
+            Writer out = new BufferedWriter(new OutputStreamWriter(ctx.outputStream(), StandardCharsets.UTF_8), 16 * 1024);
+            searcher.search(params, offset, limit, deadline, out);
+            out.flush();
+        } catch (IllegalArgumentException e) {
+            ctx.status(400).result(gson.toJson(Map.of("error", e.getMessage())));
+        } finally {
+            long end = System.nanoTime();
+            limiter.release(end - start, deadline != 0 && end - deadline >= 0);
         }
     }
 
-    private static Map<String, Object> buildFilters(String author, String lang, Integer year) {
-        Map<String, Object> filters = new HashMap<>();
-        if (author != null) filters.put("author", author);
-        if (lang != null) filters.put("language", lang);
-        if (year != null) filters.put("year", year);
-        return filters;
+    private static int clamp(String param, int def, int min, int max) {
+        if (param == null) return def;
+        try {
+            return Math.max(min, Math.min(max, Integer.parseInt(param)));
+        } catch (NumberFormatException e) {
+            return def;
+        }
     }
 }
@@ -0,0 +1,34 @@
+package com.example.search;
+
+/**
+ * Okapi BM25 with the usual k1 = 1.2, b = 0.75. Document frequencies and lengths
+ * come straight from the segments, so scoring needs no per-document objects.
+ */
+public class Bm25 {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final float[] idf;
+    private final float avgLength;
+
+    /** @param docFreqs document frequency of each query term over {@code docCount} books */
+    public Bm25(int[] docFreqs, int docCount, double avgLength) {
+        this.idf = new float[docFreqs.length];
+        for (int i = 0; i < docFreqs.length; i++) {
+            idf[i] = (float) Math.log(1 + (docCount - docFreqs[i] + 0.5) / (docFreqs[i] + 0.5));
+        }
+        this.avgLength = (float) Math.max(1, avgLength);
+    }
+
+    /** {@code freqs[i]} is the frequency of query term i in a book of {@code length} tokens. */
+    public float score(int[] freqs, int length) {
+        float norm = K1 * (1 - B + B * length / avgLength);
+        float score = 0;
+        for (int i = 0; i < freqs.length; i++) {
+            int tf = freqs[i];
+            if (tf > 0) score += idf[i] * tf * (K1 + 1) / (tf + norm);
+        }
+        return score;
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.search;
+
+/**
+ * Adaptive cap on concurrent searches (additive increase, multiplicative decrease). A search
+ * that answers within the latency target while at least half the limit was in use raises
+ * the limit by {@code 1/limit}, so about one per round of requests; one that overruns the
+ * target or its time budget cuts it by {@link #BACKOFF}, at most once per target interval so
+ * a single slow burst is not punished once per request. Requests over the limit are turned
+ * away at once: under overload some searches fail fast instead of all of them getting slow.
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetNanos;
+    private double limit;
+    private int inFlight;
+    private long lastDecrease;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, long targetMillis) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.targetNanos = targetMillis * 1_000_000;
+        this.lastDecrease = System.nanoTime() - targetNanos;
+    }
+
+    /** Takes a slot, or returns false when all are in use; a true answer must be followed by {@link #release}. */
+    public synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) return false;
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * @param nanos   how long the search took
+     * @param overran whether it ran out of time budget
+     */
+    public synchronized void release(long nanos, boolean overran) {
+        int used = inFlight--;
+        if (overran || nanos > targetNanos) {
+            long now = System.nanoTime();
+            if (now - lastDecrease >= targetNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF);
+                lastDecrease = now;
+            }
+        } else if (used * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.search;
+
+import com.example.metrics.Metrics;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Scatter-gather over search shards. The query goes to every shard in parallel with
+ * {@code offset=0, limit=offset+limit}, so {@code offset+limit} may not exceed a shard's
+ * page limit. The per-shard top hits are merged by their exact score, read from each hit's
+ * {@code cursor} (ties to the lower book id, as in {@link TopK}), and the requested page is
+ * cut from the result. Shards that fail, miss the deadline or answer with something other
+ * than a result page are left out and the response is flagged {@code partial}, as it is
+ * when a shard ran out of its {@code budget_ms}. Scores
+ * use each shard's own BM25 statistics, which hash partitioning keeps close to the global
+ * ones.
+ */
+public class Coordinator {
+
+    private static final HttpClient http = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+
+    private static final long MAX_DEADLINE_MILLIS = 30_000;
+    /** How long past the deadline to wait for the per-shard timeouts themselves to fire. */
+    private static final long GATHER_SLACK_MILLIS = 100;
+    private static final Metrics.Timer scatterTimer = Metrics.stage("scatter");
+    private static final Metrics.Timer parseTimer = Metrics.stage("json_parse");
+
+    private final List<String> shards;
+    private final long deadlineMillis;
+
+    public Coordinator(List<String> shards, long deadlineMillis) {
+        this.shards = shards;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public List<String> shards() { return shards; }
+
+    /**
+     * @param params         the client's query parameters, minus offset and limit
+     * @param deadlineMillis per-shard deadline for this query, 0 for the default
+     * @param traceId        sent to the shards as {@code X-Trace-Id}, may be null
+     */
+    public Map<String, Object> search(Map<String, String> params, int offset, int limit, long deadlineMillis, String traceId) {
+        long deadline = deadlineMillis > 0 ? Math.min(deadlineMillis, MAX_DEADLINE_MILLIS) : this.deadlineMillis;
+        StringBuilder query = new StringBuilder();
+        params.forEach((k, v) -> {
+            if (v != null) query.append(k).append('=').append(URLEncoder.encode(v, StandardCharsets.UTF_8)).append('&');
+        });
+        query.append("offset=0&limit=").append(offset + limit);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<JsonObject>> calls = new ArrayList<>();
+        for (String shard : shards) {
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(shard + "/search?" + query))
+                    .timeout(Duration.ofMillis(deadline));
+            if (traceId != null) request.header(Metrics.TRACE_HEADER, traceId);
+            calls.add(http.sendAsync(request.build(), HttpResponse.BodyHandlers.ofString())
+                    .thenApply(resp -> resp.statusCode() == 200 ? parse(resp.body()) : null)
+                    .completeOnTimeout(null, deadline, TimeUnit.MILLISECONDS)
+                    .exceptionally(e -> null));
+        }
+        try {
+            CompletableFuture.allOf(calls.toArray(new CompletableFuture[0])).get(deadline + GATHER_SLACK_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            // whatever has not answered by now counts as missing
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scatterTimer.since(start);
+
+        List<JsonObject> hits = new ArrayList<>();
+        List<String> missing = new ArrayList<>();
+        long totalHits = 0;
+        boolean truncated = false;
+        JsonObject first = null;
+        for (int i = 0; i < shards.size(); i++) {
+            JsonObject r = calls.get(i).getNow(null);
+            if (r == null) {
+                missing.add(shards.get(i));
+                continue;
+            }
+            if (first == null) first = r;
+            totalHits += r.get("total_hits").getAsLong();
+            truncated |= r.has("partial") && r.get("partial").isJsonPrimitive() && r.get("partial").getAsBoolean();
+            for (JsonElement e : r.getAsJsonArray("results")) hits.add(e.getAsJsonObject());
+        }
+        // the rounded "score" would tie hits a shard ranked apart
+        hits.sort(Comparator.comparingDouble((JsonObject h) -> -exactScore(h))
+                .thenComparingInt(h -> h.get("book_id").getAsInt()));
+
+        JsonArray page = new JsonArray();
+        for (int i = offset; i < Math.min(hits.size(), offset + limit); i++) {
+            JsonObject hit = hits.get(i);
+            // a shard's cursor does not resume the merged ranking
+            hit.remove("cursor");
+            page.add(hit);
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("query", first != null && first.has("query") ? first.get("query").getAsString() : Objects.requireNonNullElse(params.get("q"), ""));
+        response.put("filters", first != null && first.has("filters") ? first.get("filters") : new JsonObject());
+        response.put("total_hits", totalHits);
+        response.put("offset", offset);
+        response.put("limit", limit);
+        response.put("count", page.size());
+        response.put("partial", !missing.isEmpty() || truncated);
+        Map<String, Object> shardInfo = new LinkedHashMap<>();
+        shardInfo.put("total", shards.size());
+        shardInfo.put("responded", shards.size() - missing.size());
+        if (!missing.isEmpty()) shardInfo.put("missing", missing);
+        response.put("shards", shardInfo);
+        response.put("results", page);
+        return response;
+    }
+
+    private static float exactScore(JsonObject hit) {
+        String cursor = hit.get("cursor").getAsString();
+        return Float.intBitsToFloat(Integer.parseUnsignedInt(cursor.substring(0, cursor.indexOf('.')), 16));
+    }
+
+    /** A shard's result page, or null when the body is not one (an error object, say). */
+    private static JsonObject parse(String body) {
+        long start = System.nanoTime();
+        JsonElement json = JsonParser.parseString(body);
+        parseTimer.since(start);
+        if (!json.isJsonObject()) return null;
+        JsonObject page = json.getAsJsonObject();
+        if (!isNumber(page.get("total_hits")) || !page.has("results") || !page.get("results").isJsonArray()) return null;
+        for (JsonElement e : page.getAsJsonArray("results")) {
+            if (!e.isJsonObject()) return null;
+            JsonObject hit = e.getAsJsonObject();
+            if (!isNumber(hit.get("book_id")) || !hit.has("cursor") || !hit.get("cursor").isJsonPrimitive()) return null;
+            try {
+                exactScore(hit);
+            } catch (RuntimeException badCursor) {
+                return null;
+            }
+        }
+        return page;
+    }
+
+    private static boolean isNumber(JsonElement e) {
+        return e != null && e.isJsonPrimitive() && e.getAsJsonPrimitive().isNumber();
+    }
+}
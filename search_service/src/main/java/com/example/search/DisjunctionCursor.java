@@ -0,0 +1,61 @@
+package com.example.search;
+
+/**
+ * Union of the posting lists of several terms, used for prefix and substring clauses that
+ * expand to many terms. The sub-cursors sit in a min-heap by doc, so each step costs
+ * {@code log(terms)}; the frequency of a doc is the sum over the terms it contains.
+ */
+public class DisjunctionCursor implements DocCursor {
+
+    private final Segment.PostingsCursor[] heap;
+    private int size;
+    private int doc = -1;
+    private int freq;
+
+    /** @param cursors unpositioned cursors, one per expanded term */
+    public DisjunctionCursor(Segment.PostingsCursor[] cursors) {
+        this.heap = cursors.clone();
+        for (Segment.PostingsCursor c : heap) {
+            if (c.next() != Integer.MAX_VALUE) heap[size++] = c;
+        }
+        for (int i = size / 2 - 1; i >= 0; i--) siftDown(i);
+    }
+
+    @Override
+    public int next() {
+        if (size == 0) return doc = Integer.MAX_VALUE;
+        doc = heap[0].doc();
+        freq = 0;
+        while (size > 0 && heap[0].doc() == doc) {
+            freq += heap[0].freq();
+            if (heap[0].next() == Integer.MAX_VALUE) heap[0] = heap[--size];
+            siftDown(0);
+        }
+        return doc;
+    }
+
+    @Override
+    public int advance(int target) {
+        while (doc < target) next();
+        return doc;
+    }
+
+    @Override
+    public int doc() { return doc; }
+
+    @Override
+    public int freq() { return freq; }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) return;
+            int m = l + 1 < size && heap[l + 1].doc() < heap[l].doc() ? l + 1 : l;
+            if (heap[i].doc() <= heap[m].doc()) return;
+            Segment.PostingsCursor t = heap[i];
+            heap[i] = heap[m];
+            heap[m] = t;
+            i = m;
+        }
+    }
+}
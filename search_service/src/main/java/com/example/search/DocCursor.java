@@ -0,0 +1,20 @@
+package com.example.search;
+
+/**
+ * Forward-only iterator over the docs of one segment matching one query clause, in doc
+ * ordinal order. {@link Integer#MAX_VALUE} marks the end.
+ */
+public interface DocCursor {
+
+    /** Moves to the next matching doc and returns its ordinal. */
+    int next();
+
+    /** Moves to the first matching doc with ordinal >= target. */
+    int advance(int target);
+
+    /** Current doc ordinal, -1 before the first call to {@link #next}. */
+    int doc();
+
+    /** How often the clause occurs in the current doc. */
+    int freq();
+}
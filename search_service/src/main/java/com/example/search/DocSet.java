@@ -0,0 +1,102 @@
+package com.example.search;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of global doc ordinals. Like a Roaring container it picks its layout by
+ * density: a sorted {@code int[]} while sparse, a plain bitmap once more than one doc in
+ * 32 is set, so rare values (one author's books) stay small and common ones (a language)
+ * are fast to AND.
+ */
+public final class DocSet {
+
+    private final int universe;
+    private final int[] array;   // sorted, when sparse
+    private final long[] bits;   // when dense
+    private final int cardinality;
+
+    private DocSet(int universe, int[] array, long[] bits, int cardinality) {
+        this.universe = universe;
+        this.array = array;
+        this.bits = bits;
+        this.cardinality = cardinality;
+    }
+
+    public static DocSet empty(int universe) {
+        return new DocSet(universe, new int[0], null, 0);
+    }
+
+    /** @param docs sorted, distinct ordinals below {@code universe}; only the first {@code n} are used */
+    public static DocSet of(int universe, int[] docs, int n) {
+        if (n * 32L > universe) {
+            long[] bits = new long[(universe + 63) >>> 6];
+            for (int i = 0; i < n; i++) bits[docs[i] >>> 6] |= 1L << docs[i];
+            return new DocSet(universe, null, bits, n);
+        }
+        return new DocSet(universe, Arrays.copyOf(docs, n), null, n);
+    }
+
+    private static DocSet ofBits(int universe, long[] bits) {
+        int n = 0;
+        for (long w : bits) n += Long.bitCount(w);
+        if (n * 32L > universe) return new DocSet(universe, null, bits, n);
+        int[] docs = new int[n];
+        int i = 0;
+        for (int w = 0; w < bits.length; w++) {
+            for (long word = bits[w]; word != 0; word &= word - 1) {
+                docs[i++] = (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+        }
+        return new DocSet(universe, docs, null, n);
+    }
+
+    public int cardinality() { return cardinality; }
+
+    public boolean isEmpty() { return cardinality == 0; }
+
+    public boolean contains(int doc) {
+        if (bits != null) return (bits[doc >>> 6] & (1L << doc)) != 0;
+        return Arrays.binarySearch(array, doc) >= 0;
+    }
+
+    public DocSet and(DocSet other) {
+        if (bits != null && other.bits != null) {
+            long[] out = new long[bits.length];
+            for (int i = 0; i < out.length; i++) out[i] = bits[i] & other.bits[i];
+            return ofBits(universe, out);
+        }
+        DocSet sparse = bits == null ? this : other;
+        DocSet probe = sparse == this ? other : this;
+        int[] out = new int[sparse.cardinality];
+        int n = 0;
+        for (int d : sparse.array) {
+            if (probe.contains(d)) out[n++] = d;
+        }
+        return new DocSet(universe, Arrays.copyOf(out, n), null, n);
+    }
+
+    /** Bitmap view for hot-loop membership tests. */
+    public long[] toBits() {
+        if (bits != null) return bits;
+        long[] out = new long[(universe + 63) >>> 6];
+        for (int d : array) out[d >>> 6] |= 1L << d;
+        return out;
+    }
+
+    /** Next member >= {@code from}, or -1. */
+    public int nextDoc(int from) {
+        if (bits != null) {
+            int w = from >>> 6;
+            if (w >= bits.length) return -1;
+            long word = bits[w] & (-1L << from);
+            while (true) {
+                if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == bits.length) return -1;
+                word = bits[w];
+            }
+        }
+        int i = Arrays.binarySearch(array, from);
+        if (i < 0) i = -i - 1;
+        return i < array.length ? array[i] : -1;
+    }
+}
@@ -0,0 +1,92 @@
+package com.example.search;
+
+import java.util.*;
+
+/**
+ * Column store for the book metadata of one snapshot, indexed by global doc ordinal.
+ * Each filterable field is dictionary-encoded (values folded to lower case) into an
+ * {@code int[]} column, with one {@link DocSet} per distinct value, so a filter is
+ * a dictionary lookup followed by set intersections.
+ */
+public class MetadataStore {
+
+    public static final String[] FILTER_FIELDS = {"author", "year", "language"};
+
+    private final int docCount;
+    private final Map<String, Column> columns = new HashMap<>();
+
+    private static final class Column {
+        final Map<String, Integer> dictionary = new HashMap<>();
+        final List<String> values = new ArrayList<>();
+        final int[] codes;
+        DocSet[] sets;
+
+        Column(int docCount) {
+            codes = new int[docCount];
+            Arrays.fill(codes, -1);
+        }
+    }
+
+    MetadataStore(int docCount) {
+        this.docCount = docCount;
+        for (String f : FILTER_FIELDS) columns.put(f, new Column(docCount));
+    }
+
+    void set(int doc, Map<String, String> metadata) {
+        for (String f : FILTER_FIELDS) {
+            String v = metadata.get(f);
+            if (v == null || v.isBlank() || v.equalsIgnoreCase("unknown")) continue;
+            Column c = columns.get(f);
+            String key = v.trim().toLowerCase();
+            Integer code = c.dictionary.get(key);
+            if (code == null) {
+                code = c.values.size();
+                c.dictionary.put(key, code);
+                c.values.add(v.trim());
+            }
+            c.codes[doc] = code;
+        }
+    }
+
+    /** Builds the per-value doc sets once every doc has been {@link #set}. */
+    void seal() {
+        for (Column c : columns.values()) {
+            int[] counts = new int[c.values.size()];
+            for (int code : c.codes) if (code >= 0) counts[code]++;
+            int[][] docs = new int[counts.length][];
+            for (int v = 0; v < counts.length; v++) docs[v] = new int[counts[v]];
+            int[] fill = new int[counts.length];
+            for (int d = 0; d < c.codes.length; d++) {
+                int code = c.codes[d];
+                if (code >= 0) docs[code][fill[code]++] = d;
+            }
+            c.sets = new DocSet[counts.length];
+            for (int v = 0; v < counts.length; v++) c.sets[v] = DocSet.of(docCount, docs[v], counts[v]);
+        }
+    }
+
+    /** Value of a field for a doc, as first seen, or null. */
+    public String get(String field, int doc) {
+        Column c = columns.get(field);
+        int code = c.codes[doc];
+        return code < 0 ? null : c.values.get(code);
+    }
+
+    /**
+     * Intersection of the docs matching every non-null filter (case-insensitive equality),
+     * or null when no filter is given.
+     */
+    public DocSet filter(Map<String, String> filters) {
+        DocSet result = null;
+        for (Map.Entry<String, String> f : filters.entrySet()) {
+            if (f.getValue() == null) continue;
+            Column c = columns.get(f.getKey());
+            Integer code = c.dictionary.get(f.getValue().trim().toLowerCase());
+            if (code == null) return DocSet.empty(docCount);
+            DocSet set = c.sets[code];
+            result = result == null ? set : result.and(set);
+            if (result.isEmpty()) return result;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.search;
+
+/**
+ * Docs containing the terms of a phrase at the right distance from each other. Candidate
+ * docs come from intersecting the posting lists; the positions of the terms are then
+ * intersected after shifting each by its offset in the phrase, and the number of surviving
+ * start positions is the phrase frequency.
+ * <p>
+ * Segments indexed without positions cannot verify the order, so there every doc
+ * containing all the terms matches, with the smallest term frequency as phrase frequency.
+ */
+public class PhraseCursor implements DocCursor {
+
+    private final Segment.PostingsCursor[] cursors;
+    private final int[] offsets;
+    private final boolean positions;
+    private int doc = -1;
+    private int freq;
+
+    /**
+     * @param cursors unpositioned cursors of the phrase terms
+     * @param offsets position of each term inside the phrase; skipped (unindexed) words leave gaps
+     */
+    public PhraseCursor(Segment.PostingsCursor[] cursors, int[] offsets, boolean positions) {
+        this.cursors = cursors;
+        this.offsets = offsets;
+        this.positions = positions;
+        for (Segment.PostingsCursor c : cursors) c.next();
+    }
+
+    @Override
+    public int next() {
+        if (doc == Integer.MAX_VALUE) return doc;
+        int target = doc + 1;
+        while (true) {
+            target = align(target);
+            if (target == Integer.MAX_VALUE) return doc = Integer.MAX_VALUE;
+            int f = phraseFreq();
+            if (f > 0) {
+                freq = f;
+                return doc = target;
+            }
+            target++;
+        }
+    }
+
+    @Override
+    public int advance(int target) {
+        if (doc >= target) return doc;
+        doc = target - 1;
+        return next();
+    }
+
+    @Override
+    public int doc() { return doc; }
+
+    @Override
+    public int freq() { return freq; }
+
+    /** First doc >= target contained in every posting list (leapfrog intersection). */
+    private int align(int target) {
+        while (true) {
+            boolean aligned = true;
+            for (Segment.PostingsCursor c : cursors) {
+                int d = c.advance(target);
+                if (d == Integer.MAX_VALUE) return d;
+                if (d != target) {
+                    target = d;
+                    aligned = false;
+                    break;
+                }
+            }
+            if (aligned) return target;
+        }
+    }
+
+    private int phraseFreq() {
+        if (!positions) {
+            int f = Integer.MAX_VALUE;
+            for (Segment.PostingsCursor c : cursors) f = Math.min(f, c.freq());
+            return f;
+        }
+        // start positions of the phrase implied by the first term, narrowed by every other term
+        int[] starts = cursors[0].positions();
+        int n = starts.length;
+        for (int i = 0; i < n; i++) starts[i] -= offsets[0];
+        for (int t = 1; t < cursors.length && n > 0; t++) {
+            int[] pos = cursors[t].positions();
+            int kept = 0;
+            for (int i = 0, j = 0; i < n && j < pos.length; ) {
+                int p = pos[j] - offsets[t];
+                if (p < starts[i]) j++;
+                else if (p > starts[i]) i++;
+                else {
+                    starts[kept++] = starts[i];
+                    i++;
+                    j++;
+                }
+            }
+            n = kept;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.search;
+
+import com.example.segment.TermFolding;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parsed form of the {@code q} parameter. Plain words are exact terms, {@code word*} is a
+ * prefix and {@code "several words"} a phrase. In substring mode every plain word instead
+ * matches the terms containing it anywhere, which means scanning the whole dictionary.
+ * <p>
+ * Words are folded and split with the indexer's {@link TermFolding}: ASCII and Latin-1
+ * letters are lowercased and stripped of accents, and every other character separates
+ * words. Words of {@link #MIN_INDEXED_LENGTH} letters or fewer are not indexed, so inside a
+ * phrase they only keep their place.
+ */
+public final class Query {
+
+    /** Mirrors the indexer's {@code TermCounter} minimum: only longer words are indexed. */
+    static final int MIN_INDEXED_LENGTH = 3;
+
+    private static final Pattern PART = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+    public enum Kind { TERM, PREFIX, PHRASE, SUBSTRING }
+
+    public static final class Clause {
+        public final Kind kind;
+        /** The term, prefix or substring; for phrases the indexed words of the phrase. */
+        public final String[] terms;
+        /** For phrases, the position of each of {@link #terms} inside the phrase. */
+        public final int[] offsets;
+        private final String label;
+
+        Clause(Kind kind, String[] terms, int[] offsets, String label) {
+            this.kind = kind;
+            this.terms = terms;
+            this.offsets = offsets;
+            this.label = label;
+        }
+
+        /** Normalized text of the clause, as echoed in responses and used in cache keys. */
+        public String label() { return label; }
+
+        static Clause term(String t) {
+            return new Clause(Kind.TERM, new String[]{t}, new int[]{0}, t);
+        }
+    }
+
+    private final List<Clause> clauses;
+
+    private Query(List<Clause> clauses) {
+        this.clauses = clauses;
+    }
+
+    public List<Clause> clauses() { return clauses; }
+
+    public List<String> labels() {
+        List<String> labels = new ArrayList<>(clauses.size());
+        for (Clause c : clauses) labels.add(c.label());
+        return labels;
+    }
+
+    public static Query parse(String q, boolean substring) {
+        Map<String, Clause> clauses = new LinkedHashMap<>(); // by label, drops repeated clauses
+        Matcher m = PART.matcher(q == null ? "" : q);
+        while (m.find()) {
+            if (m.group(1) != null) {
+                Clause c = phrase(words(m.group(1)));
+                if (c != null) clauses.putIfAbsent(c.label(), c);
+                continue;
+            }
+            String part = m.group(2);
+            if (part.endsWith("*")) {
+                List<String> words = words(part);
+                if (words.isEmpty()) continue;
+                // "mr.dar*": every word but the last is an exact term
+                for (int i = 0; i < words.size() - 1; i++) clauses.putIfAbsent(words.get(i), Clause.term(words.get(i)));
+                String prefix = words.get(words.size() - 1);
+                clauses.putIfAbsent(prefix + "*", new Clause(Kind.PREFIX, new String[]{prefix}, new int[]{0}, prefix + "*"));
+                continue;
+            }
+            for (String w : words(part)) {
+                Clause c = substring
+                        ? new Clause(Kind.SUBSTRING, new String[]{w}, new int[]{0}, "*" + w + "*")
+                        : Clause.term(w);
+                clauses.putIfAbsent(c.label(), c);
+            }
+        }
+        return new Query(new ArrayList<>(clauses.values()));
+    }
+
+    private static Clause phrase(List<String> words) {
+        List<String> terms = new ArrayList<>();
+        int[] offsets = new int[words.size()];
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < words.size(); i++) {
+            if (words.get(i).length() <= MIN_INDEXED_LENGTH) continue;
+            if (first < 0) first = i;
+            last = i;
+            offsets[terms.size()] = i - first;
+            terms.add(words.get(i));
+        }
+        if (terms.isEmpty()) return null;
+        if (terms.size() == 1) return Clause.term(terms.get(0));
+        return new Clause(Kind.PHRASE, terms.toArray(new String[0]), Arrays.copyOf(offsets, terms.size()),
+                "\"" + String.join(" ", words.subList(first, last + 1)) + "\"");
+    }
+
+    /** The words of {@code text} as the indexer's tokenizer produces them (Søren -> soren, Łódź -> od). */
+    static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? TermFolding.fold(text.charAt(i)) : 0;
+            if (c != 0) {
+                if (word.length() < TermFolding.MAX_TERM_LENGTH) word.append(c);
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.search;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded LRU cache of serialized /search responses. Every entry remembers the
+ * index generation it was computed against and is treated as a miss once the index
+ * has moved on, so a re-index or merge never serves stale results.
+ */
+public class QueryCache {
+
+    private static final class Entry {
+        final long generation;
+        final String response;
+
+        Entry(long generation, String response) {
+            this.generation = generation;
+            this.response = response;
+        }
+
+        long weight(String key) {
+            return 2L * (key.length() + response.length()) + 64;
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public QueryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * The response cached for {@code key} at {@code generation}, or null. An entry from an
+     * older generation is dropped; one from a newer generation stays for the callers that
+     * already see it, since a request still running on an older snapshot says nothing about it.
+     */
+    public String get(String key, long generation) {
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null && e.generation == generation) {
+                hits.increment();
+                return e.response;
+            }
+            if (e != null && e.generation < generation) {
+                entries.remove(key);
+                bytes -= e.weight(key);
+                invalidations.increment();
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Longest response {@link #put} would keep; callers need not hold on to longer ones. */
+    public long maxResponseChars() {
+        return Math.max(0, (maxBytes / 4 - 64) / 2);
+    }
+
+    public void put(String key, long generation, String response) {
+        Entry e = new Entry(generation, response);
+        long w = e.weight(key);
+        if (w > maxBytes / 4) return; // one huge page should not flush the cache
+        synchronized (this) {
+            Entry old = entries.get(key);
+            if (old != null && old.generation > generation) return; // a slow request must not replace a newer answer
+            entries.put(key, e);
+            if (old != null) bytes -= old.weight(key);
+            bytes += w;
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                bytes -= eldest.getValue().weight(eldest.getKey());
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /** Drops every entry computed before {@code generation}. */
+    public synchronized void invalidateBefore(long generation) {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Entry> e = it.next();
+            if (e.getValue().generation < generation) {
+                bytes -= e.getValue().weight(e.getKey());
+                it.remove();
+                invalidations.increment();
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        long h = hits.sum();
+        long mi = misses.sum();
+        synchronized (this) {
+            m.put("entries", entries.size());
+            m.put("bytes", bytes);
+        }
+        m.put("max_bytes", maxBytes);
+        m.put("hits", h);
+        m.put("misses", mi);
+        m.put("hit_ratio", h + mi == 0 ? 0.0 : Math.round(1000.0 * h / (h + mi)) / 1000.0);
+        m.put("evictions", evictions.sum());
+        m.put("invalidations", invalidations.sum());
+        return m;
+    }
+}
@@ -0,0 +1,244 @@
+package com.example.search;
+
+import com.example.metrics.Metrics;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Answers one {@code /search} request against the current index snapshot: parses the
+ * query, applies the metadata filters, ranks with BM25 and streams the JSON page, going
+ * through the query cache. Kept apart from the HTTP layer so benchmarks run the same path.
+ */
+public class Searcher {
+
+    private static final Metrics.Timer parseTimer = Metrics.stage("parse");
+    private static final Metrics.Timer matchTimer = Metrics.stage("match");
+    private static final Metrics.Timer renderTimer = Metrics.stage("render");
+    private static final LongAdder timedOut = Metrics.counter("timed_out_total",
+            "Searches that ran out of time budget and returned partial results.");
+
+    private final Gson gson = new Gson();
+    private final SegmentIndex index;
+    private final QueryCache cache;
+
+    public Searcher(SegmentIndex index, QueryCache cache) {
+        this.index = index;
+        this.cache = cache;
+    }
+
+    /**
+     * @param params the request's {@code q}, {@code author}, {@code language}, {@code year},
+     *               {@code op}, {@code match} and {@code cursor} parameters; missing ones may be
+     *               absent or null
+     * @return the response body
+     */
+    /** Searches so far that ran out of their time budget. */
+    public static long timedOut() {
+        return timedOut.sum();
+    }
+
+    public String search(Map<String, String> params, int offset, int limit) {
+        return search(params, offset, limit, 0);
+    }
+
+    /**
+     * Like {@link #search(Map, int, int)}, but stops scoring at {@code deadline} (a
+     * {@link System#nanoTime()} reading, 0 for none) and answers with the best hits found so
+     * far, flagged {@code "partial": true}. Partial answers are not cached.
+     */
+    public String search(Map<String, String> params, int offset, int limit, long deadline) {
+        StringWriter out = new StringWriter();
+        try {
+            search(params, offset, limit, deadline, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes the response to {@code out} hit by hit instead of building it in memory. A page
+     * that ends before the last hit carries a {@code next_cursor}; passing it back as
+     * {@code cursor} returns the hits ranked after that page.
+     *
+     * @throws IllegalArgumentException if the cursor is malformed; nothing has been written then
+     */
+    public void search(Map<String, String> params, int offset, int limit, long deadline, Writer out) throws IOException {
+        long start = System.nanoTime();
+        // match=substring: plain words match any term containing them (slow, scans the dictionary)
+        Query query = Query.parse(params.get("q"), "substring".equalsIgnoreCase(params.get("match")));
+        String authorFilter = params.get("author");
+        String languageFilter = params.get("language");
+        String yearStr = params.get("year");
+        boolean matchAll = "and".equalsIgnoreCase(params.get("op"));
+        String cursor = params.get("cursor");
+        float afterScore = Float.POSITIVE_INFINITY;
+        int afterBookId = Integer.MIN_VALUE;
+        if (cursor != null && !cursor.isEmpty()) {
+            // <float bits of the last score, hex>.<its book id>: scores are compared exactly
+            int dot = cursor.indexOf('.');
+            try {
+                afterScore = Float.intBitsToFloat(Integer.parseUnsignedInt(cursor.substring(0, Math.max(dot, 0)), 16));
+                afterBookId = Integer.parseInt(cursor.substring(dot + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+
+        Integer yearFilter = null;
+        if (yearStr != null) {
+            try {
+                yearFilter = Integer.parseInt(yearStr);
+            } catch (NumberFormatException ignored) {}
+        }
+
+        List<String> terms = query.labels();
+        long parsed = System.nanoTime();
+        parseTimer.record(parsed - start);
+
+        SegmentIndex.Snapshot snapshot = index.snapshot();
+        String cacheKey = String.join(" ", terms) + "|" + (matchAll ? "and" : "or")
+                + "|" + normalize(authorFilter) + "|" + normalize(languageFilter) + "|" + yearFilter
+                + "|" + cursor + "|" + offset + "|" + limit;
+        String cached = cache.get(cacheKey, snapshot.generation());
+        if (cached != null) {
+            out.write(cached);
+            return;
+        }
+
+        int[] docFreqs = query.clauses().stream().mapToInt(snapshot::docFreq).toArray();
+        Bm25 bm25 = new Bm25(docFreqs, snapshot.docCount(), snapshot.avgLength());
+        TopK top = new TopK(offset + limit, terms.size(), afterScore, afterBookId);
+
+        Map<String, String> filters = new HashMap<>();
+        filters.put("author", authorFilter);
+        filters.put("language", languageFilter);
+        filters.put("year", yearFilter == null ? null : String.valueOf(yearFilter));
+        DocSet filter = snapshot.metadata().filter(filters);
+
+        boolean complete = true;
+        if (filter == null || !filter.isEmpty()) {
+            complete = snapshot.search(query.clauses(), matchAll, filter, deadline, (segment, ord, doc, freqs) ->
+                    top.offer(bm25.score(freqs, segment.length(ord)), segment, ord, doc, freqs));
+        }
+        if (!complete) timedOut.increment();
+
+        TopK.Hit[] hits = top.sorted();
+        long matched = System.nanoTime();
+        matchTimer.record(matched - parsed);
+
+        // keep a copy for the cache unless it grows past what the cache would accept
+        Capture capture = new Capture(out, complete ? cache.maxResponseChars() : 0);
+        JsonWriter w = gson.newJsonWriter(capture);
+        w.beginObject();
+        // echo the normalized form: the cached response is shared by every spelling of the query
+        w.name("query").value(String.join(" ", terms));
+        w.name("filters");
+        gson.toJson(buildFilters(normalize(authorFilter), normalize(languageFilter), yearFilter), Map.class, w);
+        w.name("total_hits").value(top.total());
+        w.name("offset").value(offset);
+        w.name("limit").value(limit);
+        w.name("count").value(Math.max(0, hits.length - offset));
+        w.name("partial").value(!complete);
+        if (limit > 0 && hits.length == offset + limit && top.eligible() > hits.length) {
+            TopK.Hit last = hits[hits.length - 1];
+            w.name("next_cursor").value(cursor(last));
+        }
+        w.name("results").beginArray();
+        for (int i = offset; i < hits.length; i++) writeResult(w, hits[i], terms, snapshot.metadata());
+        w.endArray();
+        w.endObject();
+        w.flush();
+
+        renderTimer.since(matched);
+        String json = capture.captured();
+        if (json != null) cache.put(cacheKey, snapshot.generation(), json);
+    }
+
+    private static String normalize(String filter) {
+        return filter == null ? null : filter.trim().toLowerCase();
+    }
+
+    private static void writeResult(JsonWriter w, TopK.Hit hit, List<String> terms, MetadataStore columns) throws IOException {
+        Map<String, String> meta = hit.segment.metadata(hit.ord);
+        w.beginObject();
+        w.name("book_id").value(hit.segment.bookId(hit.ord));
+        w.name("title").value(meta.getOrDefault("title", "Unknown"));
+        w.name("author").value(meta.getOrDefault("author", "Unknown"));
+        w.name("year").value(columns.get("year", hit.doc));
+        w.name("language").value(columns.get("language", hit.doc));
+        w.name("score").value(Math.round(hit.score * 1000) / 1000.0);
+        // the exact score, for merging shards' hits in the order each shard ranked them
+        w.name("cursor").value(cursor(hit));
+        w.name("matches").beginObject();
+        for (int i = 0; i < hit.freqs.length; i++) {
+            if (hit.freqs[i] > 0) w.name(terms.get(i)).value(hit.freqs[i]);
+        }
+        w.endObject();
+        w.endObject();
+    }
+
+    /** Resumes after {@code hit}: {@code <float bits of its score, hex>.<book id>}. */
+    static String cursor(TopK.Hit hit) {
+        return Integer.toHexString(Float.floatToRawIntBits(hit.score)) + "." + hit.segment.bookId(hit.ord);
+    }
+
+    private static Map<String, Object> buildFilters(String author, String lang, Integer year) {
+        Map<String, Object> filters = new HashMap<>();
+        if (author != null) filters.put("author", author);
+        if (lang != null) filters.put("language", lang);
+        if (year != null) filters.put("year", year);
+        return filters;
+    }
+
+    /** Passes writes through, keeping a copy of the first {@code maxChars}; the copy is dropped beyond that. */
+    private static final class Capture extends Writer {
+        private final Writer out;
+        private final long maxChars;
+        private StringBuilder copy;
+
+        Capture(Writer out, long maxChars) {
+            this.out = out;
+            this.maxChars = maxChars;
+            this.copy = maxChars > 0 ? new StringBuilder(4096) : null;
+        }
+
+        @Override
+        public void write(char[] buf, int off, int len) throws IOException {
+            out.write(buf, off, len);
+            if (copy == null) return;
+            if (copy.length() + len > maxChars) copy = null;
+            else copy.append(buf, off, len);
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            if (copy == null) return;
+            if (copy.length() + len > maxChars) copy = null;
+            else copy.append(str, off, off + len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        /** The whole response, or null if it was too long to keep. */
+        String captured() {
+            return copy == null ? null : copy.toString();
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.search;
+
+import com.example.segment.BlockPacking;
+import com.example.segment.SegmentFormat;
+import com.example.segment.SegmentHeader;
+import com.example.segment.TermReader;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Read-only, memory-mapped view of a segment written by the indexing service
+ * (see {@link SegmentFormat} for the layout), in either version.
+ * Opening a segment only reads its 64-byte header; term lookups binary-search the first
+ * term of each block of the term dictionary in place and decode at most one block, and
+ * posting lists are decoded lazily, a block at a time, by {@link PostingsCursor}.
+ */
+public class Segment {
+
+    private final Path path;
+    private final MappedByteBuffer buf;
+    private final SegmentHeader header;
+    private final boolean positions;
+    // version 1: 16-byte term index entries, every term in full, postings without blocks
+    private final boolean v1;
+    private final int termsPerBlock;
+    private final int docCount;
+    private final int termCount;
+
+    private Segment(Path path, MappedByteBuffer buf) throws IOException {
+        this.path = path;
+        this.buf = buf;
+        this.header = SegmentHeader.read(buf, path);
+        this.v1 = header.v1();
+        this.termsPerBlock = header.termsPerBlock();
+        this.positions = header.positions;
+        this.docCount = header.docCount;
+        this.termCount = header.termCount;
+    }
+
+    public static Segment open(Path path) throws IOException {
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+            SegmentHeader.checkSize(ch.size(), path);
+            return new Segment(path, ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    public Path path() { return path; }
+
+    public int docCount() { return docCount; }
+
+    public int termCount() { return termCount; }
+
+    public boolean hasPositions() { return positions; }
+
+    public int bookId(int ord) {
+        return header.bookId(ord);
+    }
+
+    public int length(int ord) {
+        return header.length(ord);
+    }
+
+    public long version(int ord) {
+        return header.version(ord);
+    }
+
+    public Map<String, String> metadata(int ord) {
+        return header.metadata(ord);
+    }
+
+    /** Term ordinal of the UTF-8 encoded term, or {@code -(insertion point) - 1} when absent. */
+    public int findTerm(byte[] term) {
+        // the last block starting at or before the term, then a scan inside it
+        int lo = 0;
+        int hi = (termCount + termsPerBlock - 1) / termsPerBlock - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareFirstTerm(mid, term);
+            if (c < 0) lo = mid + 1;
+            else if (c > 0) hi = mid - 1;
+            else return mid * termsPerBlock;
+        }
+        if (hi < 0) return -1;
+        TermReader r = new TermReader(buf, header, hi);
+        r.next();
+        int end = Math.min(termCount, (hi + 1) * termsPerBlock);
+        while (r.ord + 1 < end) {
+            r.next();
+            int c = Arrays.compareUnsigned(r.bytes, 0, r.length, term, 0, term.length);
+            if (c == 0) return r.ord;
+            if (c > 0) return -r.ord - 1;
+        }
+        return -end - 1;
+    }
+
+    /**
+     * Term ordinals {@code [from, to)} of every term starting with {@code prefix}: two
+     * lookups, as the dictionary is sorted by unsigned byte order.
+     */
+    public int[] prefixRange(byte[] prefix) {
+        int from = findTerm(prefix);
+        if (from < 0) from = -from - 1;
+        // the first term past the prefix is at or after the smallest string greater than every extension of it
+        int n = prefix.length;
+        while (n > 0 && prefix[n - 1] == (byte) 0xFF) n--;
+        if (n == 0) return new int[]{from, termCount};
+        byte[] next = Arrays.copyOf(prefix, n);
+        next[n - 1]++;
+        int to = findTerm(next);
+        return new int[]{from, to < 0 ? -to - 1 : to};
+    }
+
+    /** Ordinals of the terms containing {@code part} anywhere: a scan of the whole dictionary. */
+    public int[] termsContaining(byte[] part) {
+        int[] out = new int[16];
+        int n = 0;
+        TermReader r = new TermReader(buf, header, 0);
+        while (r.next()) {
+            if (indexOf(r.bytes, r.length, part) < 0) continue;
+            if (n == out.length) out = Arrays.copyOf(out, n * 2);
+            out[n++] = r.ord;
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    public String term(int termOrd) {
+        TermReader r = new TermReader(buf, header, termOrd / termsPerBlock);
+        while (r.ord < termOrd) r.next();
+        return new String(r.bytes, 0, r.length, StandardCharsets.UTF_8);
+    }
+
+    public int docFreq(int termOrd) {
+        return header.docFreq(termOrd);
+    }
+
+    public PostingsCursor postings(int termOrd) {
+        return new PostingsCursor(header.postingsStart(termOrd), docFreq(termOrd));
+    }
+
+    private int compareFirstTerm(int block, byte[] term) {
+        int[] pos = {header.blockStart(block)};
+        int len = SegmentFormat.readVInt(buf, pos);
+        int p = pos[0];
+        int n = Math.min(len, term.length);
+        for (int i = 0; i < n; i++) {
+            int c = Integer.compare(buf.get(p + i) & 0xFF, term[i] & 0xFF);
+            if (c != 0) return c;
+        }
+        return Integer.compare(len, term.length);
+    }
+
+    private static int indexOf(byte[] bytes, int len, byte[] part) {
+        outer:
+        for (int i = 0; i + part.length <= len; i++) {
+            for (int j = 0; j < part.length; j++) {
+                if (bytes[i + j] != part[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Forward-only iterator over one posting list, in doc ordinal order. Postings are
+     * decoded a block at a time into arrays; {@link #advance} consults the skip table first
+     * and jumps over whole blocks that end before its target.
+     */
+    public final class PostingsCursor implements DocCursor {
+        private final int blocks;     // full blocks, none in version 1
+        private final int skip;       // per block: its last doc ordinal, its end relative to blockData
+        private final int blockData;
+        private final int[] docs;
+        private final int[] freqs;
+        private final int[] words;    // unpacking scratch, only with full blocks
+        private final int[] positionStarts; // version 1: where each buffered doc's positions start
+        private int remaining;        // postings not buffered yet
+        private int nextBlock;
+        private int lastDoc;          // last doc buffered or skipped, the base of the next gap
+        private int size;
+        private int upto;
+        private int doc = -1;
+        private int freq;
+        private int pos;
+        private int positionsPos;     // version 2: where the positions of buffered doc positionsUpto start
+        private int positionsUpto;
+
+        PostingsCursor(int start, int df) {
+            this.blocks = v1 ? 0 : df / BlockPacking.BLOCK;
+            this.skip = start;
+            this.blockData = start + 8 * blocks;
+            this.remaining = df;
+            int capacity = Math.min(df, BlockPacking.BLOCK);
+            this.docs = new int[capacity];
+            this.freqs = new int[capacity];
+            this.words = blocks > 0 ? new int[BlockPacking.WORDS] : null;
+            this.positionStarts = v1 && positions ? new int[capacity] : null;
+            this.pos = blockData;
+        }
+
+        /** Moves to the next posting; returns its doc ordinal or {@link Integer#MAX_VALUE} at the end. */
+        @Override
+        public int next() {
+            if (upto == size) {
+                if (remaining == 0) return doc = Integer.MAX_VALUE;
+                refill();
+            }
+            freq = freqs[upto];
+            return doc = docs[upto++];
+        }
+
+        /** Token positions of the term in the current doc, or null when the segment has none. */
+        public int[] positions() {
+            if (!positions) return null;
+            int saved = pos;
+            if (v1) {
+                pos = positionStarts[upto - 1];
+            } else {
+                // the positions of a block's docs follow each other: walk on to the current doc
+                pos = positionsPos;
+                for (; positionsUpto < upto - 1; positionsUpto++) {
+                    for (int i = freqs[positionsUpto]; i > 0; i--) vint();
+                }
+                positionsPos = pos;
+            }
+            int[] out = new int[freq];
+            for (int i = 0, p = 0; i < freq; i++) out[i] = p += vint();
+            pos = saved;
+            return out;
+        }
+
+        /** Moves to the first posting with doc ordinal >= target. */
+        @Override
+        public int advance(int target) {
+            if (doc >= target) return doc;
+            if (size == 0 || docs[size - 1] < target) {
+                // nothing buffered reaches the target: skip the blocks that end before it
+                while (nextBlock < blocks && buf.getInt(skip + 8 * nextBlock) < target) {
+                    lastDoc = buf.getInt(skip + 8 * nextBlock);
+                    remaining -= BlockPacking.BLOCK;
+                    nextBlock++;
+                }
+                upto = size;
+            }
+            while (doc < target) next();
+            return doc;
+        }
+
+        @Override
+        public int doc() { return doc; }
+
+        @Override
+        public int freq() { return freq; }
+
+        private void refill() {
+            upto = 0;
+            if (nextBlock < blocks) readBlock();
+            else if (v1) readPostings();
+            else readTail();
+        }
+
+        private void readBlock() {
+            pos = blockData + (nextBlock == 0 ? 0 : buf.getInt(skip + 8 * nextBlock - 4));
+            int minGap = vint();
+            int gapBits = buf.get(pos++);
+            int minFreq = vint();
+            int freqBits = buf.get(pos++);
+            BlockPacking.unpack(buf, pos, gapBits, words, docs);
+            pos += 16 * gapBits;
+            BlockPacking.unpack(buf, pos, freqBits, words, freqs);
+            pos += 16 * freqBits;
+            int d = lastDoc;
+            for (int i = 0; i < BlockPacking.BLOCK; i++) {
+                docs[i] = d += docs[i] + minGap;
+                freqs[i] += minFreq;
+            }
+            lastDoc = d;
+            positionsPos = pos;
+            positionsUpto = 0;
+            size = BlockPacking.BLOCK;
+            remaining -= BlockPacking.BLOCK;
+            nextBlock++;
+        }
+
+        private void readTail() {
+            pos = blockData + (blocks == 0 ? 0 : buf.getInt(skip + 8 * blocks - 4));
+            int d = lastDoc;
+            for (int i = 0; i < remaining; i++) {
+                docs[i] = d += vint();
+                freqs[i] = vint();
+            }
+            lastDoc = d;
+            positionsPos = pos;
+            positionsUpto = 0;
+            size = remaining;
+            remaining = 0;
+        }
+
+        /** Version 1: the next postings, each a varint gap and freq followed by its positions. */
+        private void readPostings() {
+            int n = Math.min(remaining, docs.length);
+            int d = lastDoc;
+            for (int i = 0; i < n; i++) {
+                docs[i] = d += vint();
+                int f = freqs[i] = vint();
+                if (positions) {
+                    positionStarts[i] = pos;
+                    for (int j = 0; j < f; j++) vint();
+                }
+            }
+            lastDoc = d;
+            size = n;
+            remaining -= n;
+        }
+
+        private int vint() {
+            int b = buf.get(pos++);
+            int v = b & 0x7F;
+            for (int shift = 7; b < 0; shift += 7) {
+                b = buf.get(pos++);
+                v |= (b & 0x7F) << shift;
+            }
+            return v;
+        }
+    }
+}
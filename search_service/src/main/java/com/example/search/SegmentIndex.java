@@ -0,0 +1,460 @@
+package com.example.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * The set of memory-mapped segments the search service answers from.
+ * Segment files are immutable, so a refresh only maps the files of the indexer's latest
+ * manifest it has not seen yet and forgets dropped ones; queries run against an
+ * immutable {@link Snapshot}.
+ */
+public class SegmentIndex {
+
+    static final String MANIFEST = "MANIFEST";
+    static final String MANIFEST_LOG = "MANIFEST.log";
+    static final String LEGACY_GENERATION = "GENERATION";
+
+    private final Path dir;
+    private final Map<Path, Segment> open = new HashMap<>();
+    private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot snapshot = new Snapshot(0, -1, new Segment[0], new long[0][]);
+    private long lastIndexGeneration = -1;
+    private Map<String, Set<Integer>> lastTombstones = Map.of();
+
+    public SegmentIndex(Path dir) {
+        this.dir = dir;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /** Called with the new snapshot generation every time the visible segments change. */
+    public void addListener(LongConsumer listener) {
+        listeners.add(listener);
+    }
+
+    /** One commit of the indexing service: its generation, live segments and tombstones. */
+    private static final class Manifest {
+        long generation = -1;
+        final List<Path> segments = new ArrayList<>();
+        final Map<String, Set<Integer>> tombstones = new HashMap<>();
+    }
+
+    /**
+     * Reads the indexer's manifest: the MANIFEST snapshot plus the committed blocks of
+     * MANIFEST.log, which together name exactly the segments of one generation. A directory
+     * written before manifests existed is listed instead, with its GENERATION file standing
+     * in for the manifest generation.
+     */
+    private Manifest readManifest() throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            Manifest m = new Manifest();
+            List<String> snapshot;
+            List<String> log;
+            try {
+                snapshot = Files.readAllLines(dir.resolve(MANIFEST), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                snapshot = null;
+            }
+            try {
+                log = Files.readAllLines(dir.resolve(MANIFEST_LOG), StandardCharsets.UTF_8);
+            } catch (NoSuchFileException e) {
+                log = List.of();
+            }
+            if (snapshot == null && log.isEmpty()) return legacyManifest();
+
+            Set<String> segments = new LinkedHashSet<>();
+            for (String line : snapshot == null ? List.<String>of() : snapshot) {
+                String[] f = line.split(" ");
+                switch (f[0]) {
+                    case "generation": m.generation = Long.parseLong(f[1]); break;
+                    case "segment": segments.add(f[1]); break;
+                    case "tombstone": m.tombstones.computeIfAbsent(f[1], k -> new HashSet<>()).add(Integer.parseInt(f[2])); break;
+                    default: break;
+                }
+            }
+            long snapshotGeneration = m.generation;
+            boolean gap = false;
+            List<String[]> block = new ArrayList<>();
+            for (String line : log) {
+                String[] f = line.split(" ");
+                if (!f[0].equals("commit")) {
+                    block.add(f);
+                    continue;
+                }
+                long g = Long.parseLong(f[1]);
+                if (g > m.generation) {
+                    // the log was compacted into a snapshot newer than the one read above
+                    if (g != m.generation + 1) gap = true;
+                    for (String[] r : block) apply(r, segments, m.tombstones);
+                    m.generation = g;
+                }
+                block.clear();
+            }
+            if (gap && attempt < 3) continue;
+            if (gap) throw new IOException("Manifest changed while reading, snapshot generation " + snapshotGeneration);
+            for (String name : segments) m.segments.add(dir.resolve(name));
+            return m;
+        }
+    }
+
+    private static void apply(String[] r, Set<String> segments, Map<String, Set<Integer>> tombstones) {
+        switch (r[0]) {
+            case "segment": segments.add(r[1]); break;
+            case "tombstone": tombstones.computeIfAbsent(r[1], k -> new HashSet<>()).add(Integer.parseInt(r[2])); break;
+            case "drop":
+                segments.remove(r[1]);
+                tombstones.remove(r[1]);
+                break;
+            default: break;
+        }
+    }
+
+    private Manifest legacyManifest() throws IOException {
+        Manifest m = new Manifest();
+        try {
+            m.generation = Long.parseLong(Files.readString(dir.resolve(LEGACY_GENERATION)).trim());
+        } catch (NoSuchFileException | NumberFormatException ignored) {}
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.toString().endsWith(".seg")).sorted().forEach(m.segments::add);
+        } catch (NoSuchFileException ignored) {}
+        return m;
+    }
+
+    /**
+     * Pins the segments of the current manifest generation. The indexing service keeps
+     * dropped segment files around for a while after a commit, so every file a manifest
+     * names can still be opened; an unchanged generation means nothing to do.
+     */
+    public synchronized void refresh() {
+        Manifest manifest;
+        try {
+            manifest = readManifest();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Error reading manifest in " + dir + ": " + e.getMessage());
+            return;
+        }
+        long indexGeneration = manifest.generation;
+        if (indexGeneration >= 0 && indexGeneration == lastIndexGeneration) return;
+
+        Map<Path, Segment> pinned = new HashMap<>();
+        for (Path p : manifest.segments) {
+            Segment seg = open.get(p);
+            if (seg == null) {
+                try {
+                    seg = Segment.open(p);
+                } catch (NoSuchFileException e) {
+                    return; // already swept: a newer manifest replaced this one, pick it up next time
+                } catch (IOException e) {
+                    System.err.println("Error opening segment " + p + ": " + e.getMessage());
+                    continue;
+                }
+            }
+            pinned.put(p, seg);
+        }
+        boolean changed = !pinned.keySet().equals(open.keySet());
+        open.clear();
+        open.putAll(pinned);
+        changed |= !manifest.tombstones.equals(lastTombstones);
+        lastIndexGeneration = indexGeneration;
+        lastTombstones = manifest.tombstones;
+        if (changed) {
+            long generation = snapshot.generation + 1;
+            snapshot = build(generation, indexGeneration, open.values().toArray(new Segment[0]), manifest.tombstones);
+            listeners.forEach(l -> l.accept(generation));
+        }
+    }
+
+    public void startWatching(long periodSeconds) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "index-refresh");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Marks, for every book, only its highest-version copy not tombstoned by the manifest
+     * as live.
+     */
+    private static Snapshot build(long generation, long indexGeneration, Segment[] segments,
+                                  Map<String, Set<Integer>> tombstones) {
+        Map<Integer, long[]> newest = new HashMap<>(); // bookId -> {version, segment, ord}
+        for (int s = 0; s < segments.length; s++) {
+            Set<Integer> dead = tombstones.getOrDefault(segments[s].path().getFileName().toString(), Set.of());
+            for (int d = 0; d < segments[s].docCount(); d++) {
+                if (dead.contains(segments[s].bookId(d))) continue;
+                long version = segments[s].version(d);
+                long[] cur = newest.get(segments[s].bookId(d));
+                if (cur == null || cur[0] < version) newest.put(segments[s].bookId(d), new long[]{version, s, d});
+            }
+        }
+        long[][] live = new long[segments.length][];
+        for (int s = 0; s < segments.length; s++) live[s] = new long[(segments[s].docCount() + 63) >>> 6];
+        for (long[] e : newest.values()) {
+            int d = (int) e[2];
+            live[(int) e[1]][d >>> 6] |= 1L << d;
+        }
+        return new Snapshot(generation, indexGeneration, segments, live);
+    }
+
+    @FunctionalInterface
+    public interface MatchConsumer {
+        /**
+         * {@code freqs[i]} is the frequency of the i-th query clause in the book, 0 when absent.
+         * The array is reused between calls.
+         */
+        void accept(Segment segment, int ord, int doc, int[] freqs);
+    }
+
+    public static final class Snapshot {
+        /** Cap on the terms one prefix or substring clause expands to, per segment. */
+        static final int MAX_EXPANSIONS = 1024;
+        // the clock is read once per 1024 candidate docs, a few microseconds of work
+        private static final int CHECK_EVERY = 1023;
+
+        private final long generation;
+        private final long indexGeneration;
+        private final Segment[] segments;
+        private final long[][] live;
+        private final int[] docBase;
+        private final int docCount;
+        private final double avgLength;
+        private final MetadataStore metadata;
+
+        Snapshot(long generation, long indexGeneration, Segment[] segments, long[][] live) {
+            this.generation = generation;
+            this.indexGeneration = indexGeneration;
+            this.segments = segments;
+            this.live = live;
+            this.docBase = new int[segments.length + 1];
+            for (int s = 0; s < segments.length; s++) docBase[s + 1] = docBase[s] + segments[s].docCount();
+
+            this.metadata = new MetadataStore(docBase[segments.length]);
+            int n = 0;
+            long lengths = 0;
+            for (int s = 0; s < segments.length; s++) {
+                for (int d = 0; d < segments[s].docCount(); d++) {
+                    if (!isLive(s, d)) continue;
+                    n++;
+                    lengths += segments[s].length(d);
+                    metadata.set(docBase[s] + d, segments[s].metadata(d));
+                }
+            }
+            metadata.seal();
+            this.docCount = n;
+            this.avgLength = n == 0 ? 0 : (double) lengths / n;
+        }
+
+        /** Increases every time the search service picks up a different set of segments. */
+        public long generation() { return generation; }
+
+        /** Generation last published by the indexing service, -1 when unknown. */
+        public long indexGeneration() { return indexGeneration; }
+
+        public int segmentCount() { return segments.length; }
+
+        /** Number of live books. Global doc ordinals range over all books, live or not. */
+        public int docCount() { return docCount; }
+
+        public MetadataStore metadata() { return metadata; }
+
+        /** Average book length in tokens, for BM25 length normalisation. */
+        public double avgLength() { return avgLength; }
+
+        /**
+         * Number of books matching the clause, summed over segments. Tombstoned copies of a
+         * book still awaiting a merge are counted too, which only slightly lowers the idf.
+         * Prefix and substring clauses add up the frequencies of their expansions and
+         * phrases take their rarest term, so both are upper bounds.
+         */
+        public int docFreq(Query.Clause clause) {
+            long df = 0;
+            for (Segment seg : segments) {
+                if (clause.kind == Query.Kind.PHRASE) {
+                    int min = Integer.MAX_VALUE;
+                    for (String term : clause.terms) {
+                        int t = seg.findTerm(term.getBytes(StandardCharsets.UTF_8));
+                        min = Math.min(min, t >= 0 ? seg.docFreq(t) : 0);
+                    }
+                    df += min;
+                } else {
+                    for (int t : expand(seg, clause)) df += seg.docFreq(t);
+                }
+            }
+            return (int) Math.min(df, docCount);
+        }
+
+        private boolean isLive(int s, int ord) {
+            return (live[s][ord >>> 6] & (1L << ord)) != 0;
+        }
+
+        /**
+         * Hands every live book matching the clauses and contained in {@code filter} (null
+         * for no filter) to the consumer, segment by segment. With {@code all} every clause
+         * must match, otherwise any; with no clauses every book in the filter matches without
+         * touching the postings.
+         *
+         * @param deadline {@link System#nanoTime()} at which to stop early, 0 for none
+         * @return false when the deadline cut the search short
+         */
+        public boolean search(List<Query.Clause> clauses, boolean all, DocSet filter, long deadline,
+                              MatchConsumer consumer) {
+            int[] freqs = new int[clauses.size()];
+            if (clauses.isEmpty()) return scan(filter, deadline, freqs, consumer);
+            long[] filterBits = filter == null ? null : filter.toBits();
+
+            for (int s = 0; s < segments.length; s++) {
+                if (expired(deadline)) return false;
+                DocCursor[] cursors = new DocCursor[clauses.size()];
+                boolean missing = false;
+                for (int i = 0; i < cursors.length; i++) {
+                    cursors[i] = cursor(segments[s], clauses.get(i));
+                    if (cursors[i] != null) cursors[i].next();
+                    else missing = true;
+                }
+                if (all && missing) continue;
+
+                boolean complete = all
+                        ? intersect(s, cursors, filterBits, deadline, freqs, consumer)
+                        : union(s, cursors, filterBits, deadline, freqs, consumer);
+                if (!complete) return false;
+            }
+            return true;
+        }
+
+        private static boolean expired(long deadline) {
+            return deadline != 0 && System.nanoTime() - deadline >= 0;
+        }
+
+        /** Unpositioned cursor over the clause's matches in one segment, null when there are none. */
+        private static DocCursor cursor(Segment seg, Query.Clause clause) {
+            if (clause.kind == Query.Kind.PHRASE) {
+                Segment.PostingsCursor[] terms = new Segment.PostingsCursor[clause.terms.length];
+                for (int i = 0; i < terms.length; i++) {
+                    int t = seg.findTerm(clause.terms[i].getBytes(StandardCharsets.UTF_8));
+                    if (t < 0) return null;
+                    terms[i] = seg.postings(t);
+                }
+                return new PhraseCursor(terms, clause.offsets, seg.hasPositions());
+            }
+            int[] ords = expand(seg, clause);
+            if (ords.length == 0) return null;
+            if (ords.length == 1) return seg.postings(ords[0]);
+            Segment.PostingsCursor[] terms = new Segment.PostingsCursor[ords.length];
+            for (int i = 0; i < ords.length; i++) terms[i] = seg.postings(ords[i]);
+            return new DisjunctionCursor(terms);
+        }
+
+        /**
+         * Term ordinals a single-term clause stands for in one segment. Prefix and substring
+         * clauses keep at most {@link #MAX_EXPANSIONS} terms per segment.
+         */
+        private static int[] expand(Segment seg, Query.Clause clause) {
+            byte[] key = clause.terms[0].getBytes(StandardCharsets.UTF_8);
+            switch (clause.kind) {
+                case PREFIX: {
+                    int[] range = seg.prefixRange(key);
+                    int n = Math.min(range[1] - range[0], MAX_EXPANSIONS);
+                    int[] ords = new int[n];
+                    for (int i = 0; i < n; i++) ords[i] = range[0] + i;
+                    return ords;
+                }
+                case SUBSTRING: {
+                    int[] ords = seg.termsContaining(key);
+                    return ords.length > MAX_EXPANSIONS ? Arrays.copyOf(ords, MAX_EXPANSIONS) : ords;
+                }
+                default: {
+                    int t = seg.findTerm(key);
+                    return t >= 0 ? new int[]{t} : new int[0];
+                }
+            }
+        }
+
+        private boolean scan(DocSet filter, long deadline, int[] freqs, MatchConsumer consumer) {
+            if (filter == null) {
+                for (int s = 0; s < segments.length; s++) {
+                    if (expired(deadline)) return false;
+                    for (int d = 0; d < segments[s].docCount(); d++) {
+                        if (isLive(s, d)) consumer.accept(segments[s], d, docBase[s] + d, freqs);
+                    }
+                }
+                return true;
+            }
+            int steps = 0;
+            for (int doc = filter.nextDoc(0); doc >= 0; doc = filter.nextDoc(doc + 1)) {
+                if ((++steps & CHECK_EVERY) == 0 && expired(deadline)) return false;
+                int s = Arrays.binarySearch(docBase, doc);
+                s = s >= 0 ? s : -s - 2;
+                while (docBase[s + 1] == docBase[s]) s++; // skip empty segments
+                consumer.accept(segments[s], doc - docBase[s], doc, freqs);
+            }
+            return true;
+        }
+
+        private boolean accepts(int s, int ord, long[] filterBits) {
+            if (!isLive(s, ord)) return false;
+            if (filterBits == null) return true;
+            int doc = docBase[s] + ord;
+            return (filterBits[doc >>> 6] & (1L << doc)) != 0;
+        }
+
+        private boolean intersect(int s, DocCursor[] cursors, long[] filterBits, long deadline, int[] freqs,
+                                  MatchConsumer consumer) {
+            int target = cursors[0].doc();
+            int steps = 0;
+            while (target != Integer.MAX_VALUE) {
+                if ((++steps & CHECK_EVERY) == 0 && expired(deadline)) return false;
+                boolean aligned = true;
+                for (DocCursor c : cursors) {
+                    int d = c.advance(target);
+                    if (d != target) {
+                        target = d;
+                        aligned = false;
+                        break;
+                    }
+                }
+                if (!aligned) continue;
+                if (accepts(s, target, filterBits)) {
+                    for (int i = 0; i < cursors.length; i++) freqs[i] = cursors[i].freq();
+                    consumer.accept(segments[s], target, docBase[s] + target, freqs);
+                }
+                target = cursors[0].next();
+            }
+            return true;
+        }
+
+        private boolean union(int s, DocCursor[] cursors, long[] filterBits, long deadline, int[] freqs,
+                              MatchConsumer consumer) {
+            int steps = 0;
+            while (true) {
+                if ((++steps & CHECK_EVERY) == 0 && expired(deadline)) return false;
+                int next = Integer.MAX_VALUE;
+                for (DocCursor c : cursors) {
+                    if (c != null) next = Math.min(next, c.doc());
+                }
+                if (next == Integer.MAX_VALUE) return true;
+
+                for (int i = 0; i < cursors.length; i++) {
+                    freqs[i] = 0;
+                    if (cursors[i] != null && cursors[i].doc() == next) {
+                        freqs[i] = cursors[i].freq();
+                        cursors[i].next();
+                    }
+                }
+                if (accepts(s, next, filterBits)) consumer.accept(segments[s], next, docBase[s] + next, freqs);
+            }
+        }
+    }
+}
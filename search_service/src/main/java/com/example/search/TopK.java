@@ -0,0 +1,163 @@
+package com.example.search;
+
+/**
+ * Bounded min-heap of the best {@code k} hits, kept in parallel primitive arrays.
+ * Higher scores rank first; ties go to the lower book id so paging is stable. With a
+ * cursor, only hits ranking after it are kept, so any page costs {@code k} slots however
+ * deep it is.
+ */
+public class TopK {
+
+    private final int k;
+    private final float[] scores;
+    private final int[] bookIds;
+    private final Segment[] segments;
+    private final int[] ords;
+    private final int[] docs;
+    private final int[][] freqs;
+    private final float afterScore;
+    private final int afterBookId;
+    private int size;
+    private int total;
+    private int eligible;
+
+    /** @param terms number of query terms whose frequencies are kept with each hit */
+    public TopK(int k, int terms) {
+        this(k, terms, Float.POSITIVE_INFINITY, Integer.MIN_VALUE);
+    }
+
+    /** Keeps only hits that rank after the hit ({@code afterScore}, {@code afterBookId}). */
+    public TopK(int k, int terms, float afterScore, int afterBookId) {
+        this.k = k;
+        this.afterScore = afterScore;
+        this.afterBookId = afterBookId;
+        this.scores = new float[k];
+        this.bookIds = new int[k];
+        this.segments = new Segment[k];
+        this.ords = new int[k];
+        this.docs = new int[k];
+        this.freqs = new int[k][terms];
+    }
+
+    /** Number of hits offered, including those that did not make the cut. */
+    public int total() { return total; }
+
+    /** Number of hits offered that rank after the cursor; all of them without one. */
+    public int eligible() { return eligible; }
+
+    public int size() { return size; }
+
+    public void offer(float score, Segment segment, int ord, int doc, int[] termFreqs) {
+        total++;
+        int bookId = segment.bookId(ord);
+        if (score > afterScore || (score == afterScore && bookId <= afterBookId)) return;
+        eligible++;
+        if (k == 0) return;
+        int slot;
+        if (size < k) {
+            slot = size;
+            set(slot, score, bookId, segment, ord, doc);
+        } else if (worse(0, score, bookId)) {
+            slot = 0;
+            set(slot, score, bookId, segment, ord, doc);
+        } else {
+            return;
+        }
+        System.arraycopy(termFreqs, 0, freqs[slot], 0, termFreqs.length);
+        if (slot == size) siftUp(size++);
+        else siftDown(0);
+    }
+
+    /** Lowest score a new hit must beat to enter a full heap, or -infinity while it is not full. */
+    public float threshold() {
+        return size < k ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    /** Drains the heap; hit {@code i} of the result is the (i+1)-th best. */
+    public Hit[] sorted() {
+        Hit[] out = new Hit[size];
+        while (size > 0) {
+            out[size - 1] = new Hit(scores[0], segments[0], ords[0], docs[0], freqs[0].clone());
+            size--;
+            if (size > 0) {
+                move(size, 0);
+                siftDown(0);
+            }
+        }
+        return out;
+    }
+
+    /** Whether the entry at i ranks below (score, bookId). */
+    private boolean worse(int i, float score, int bookId) {
+        return scores[i] < score || (scores[i] == score && bookIds[i] > bookId);
+    }
+
+    private boolean worse(int i, int j) {
+        return worse(i, scores[j], bookIds[j]);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, parent)) break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1;
+            if (l >= size) return;
+            int r = l + 1;
+            int min = r < size && worse(r, l) ? r : l;
+            if (!worse(min, i)) return;
+            swap(i, min);
+            i = min;
+        }
+    }
+
+    private void set(int i, float score, int bookId, Segment segment, int ord, int doc) {
+        scores[i] = score;
+        bookIds[i] = bookId;
+        segments[i] = segment;
+        ords[i] = ord;
+        docs[i] = doc;
+    }
+
+    private void move(int from, int to) {
+        set(to, scores[from], bookIds[from], segments[from], ords[from], docs[from]);
+        int[] f = freqs[to];
+        freqs[to] = freqs[from];
+        freqs[from] = f;
+    }
+
+    private void swap(int i, int j) {
+        float s = scores[i];
+        int b = bookIds[i];
+        Segment seg = segments[i];
+        int o = ords[i];
+        int d = docs[i];
+        int[] f = freqs[i];
+        set(i, scores[j], bookIds[j], segments[j], ords[j], docs[j]);
+        freqs[i] = freqs[j];
+        set(j, s, b, seg, o, d);
+        freqs[j] = f;
+    }
+
+    public static final class Hit {
+        public final float score;
+        public final Segment segment;
+        public final int ord;
+        public final int doc;
+        public final int[] freqs;
+
+        Hit(float score, Segment segment, int ord, int doc, int[] freqs) {
+            this.score = score;
+            this.segment = segment;
+            this.ord = ord;
+            this.doc = doc;
+            this.freqs = freqs;
+        }
+    }
+}
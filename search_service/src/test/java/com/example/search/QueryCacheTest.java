@@ -0,0 +1,28 @@
+package com.example.search;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryCacheTest {
+
+    @Test
+    void olderGenerationIsDropped() {
+        QueryCache cache = new QueryCache(1 << 20);
+        cache.put("q", 1, "old");
+        assertNull(cache.get("q", 2));
+        assertNull(cache.get("q", 1));
+        assertEquals(1L, cache.stats().get("invalidations"));
+    }
+
+    @Test
+    void lateReaderKeepsTheNewerEntry() {
+        QueryCache cache = new QueryCache(1 << 20);
+        cache.put("q", 2, "new");
+        // a request still on generation 1 misses, but neither removes nor replaces the entry
+        assertNull(cache.get("q", 1));
+        cache.put("q", 1, "old");
+        assertEquals("new", cache.get("q", 2));
+        assertEquals(0L, cache.stats().get("invalidations"));
+    }
+}
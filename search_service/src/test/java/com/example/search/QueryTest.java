@@ -0,0 +1,68 @@
+package com.example.search;
+
+import com.example.segment.TermFolding;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryTest {
+
+    @Test
+    void foldsLikeTheIndexer() {
+        assertEquals(List.of("soren", "kierkegaard"), Query.words("Søren Kierkegaard"));
+        assertEquals(List.of("strase"), Query.words("Straße"));
+        assertEquals(List.of("asop"), Query.words("Æsop"));
+        // Ł and ź are outside Latin-1, so they split the word
+        assertEquals(List.of("od"), Query.words("Łódź"));
+        assertEquals(List.of(), Query.words("Достоевский"));
+        assertEquals(List.of("don", "t", "stop"), Query.words("don't-stop"));
+    }
+
+    @Test
+    void cutsLongWordsWhereTheIndexerDoes() {
+        String word = Query.words("a".repeat(100)).get(0);
+        assertEquals(TermFolding.MAX_TERM_LENGTH, word.length());
+    }
+
+    @Test
+    void parsesTermsPrefixesAndPhrases() {
+        Query q = Query.parse("Whale harp* \"call me Ishmael\"", false);
+        assertEquals(List.of("whale", "harp*", "\"call me ishmael\""), q.labels());
+
+        Query.Clause prefix = q.clauses().get(1);
+        assertEquals(Query.Kind.PREFIX, prefix.kind);
+        assertArrayEquals(new String[]{"harp"}, prefix.terms);
+
+        // "me" is too short to be indexed, so it only holds its place
+        Query.Clause phrase = q.clauses().get(2);
+        assertEquals(Query.Kind.PHRASE, phrase.kind);
+        assertArrayEquals(new String[]{"call", "ishmael"}, phrase.terms);
+        assertArrayEquals(new int[]{0, 2}, phrase.offsets);
+    }
+
+    @Test
+    void phraseLabelDropsUnindexedWordsAtTheEdges() {
+        Query q = Query.parse("\"of whale and ship at\"", false);
+        Query.Clause phrase = q.clauses().get(0);
+        assertEquals("\"whale and ship\"", phrase.label());
+        assertArrayEquals(new String[]{"whale", "ship"}, phrase.terms);
+        assertArrayEquals(new int[]{0, 2}, phrase.offsets);
+        assertTrue(Query.parse("\"the old man and the sea\"", false).clauses().isEmpty());
+    }
+
+    @Test
+    void singleIndexedWordPhraseIsATerm() {
+        Query q = Query.parse("\"to be ishmael\"", false);
+        assertEquals(Query.Kind.TERM, q.clauses().get(0).kind);
+        assertEquals("ishmael", q.clauses().get(0).terms[0]);
+    }
+
+    @Test
+    void substringModeAndDuplicates() {
+        Query q = Query.parse("whale Whale hunt", true);
+        assertEquals(List.of("*whale*", "*hunt*"), q.labels());
+        assertEquals(Query.Kind.SUBSTRING, q.clauses().get(0).kind);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.segment;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bit packing of {@link #BLOCK} non-negative ints at a fixed width, the frame-of-reference
+ * half of the version 2 postings. The values are spread over four 32-bit lanes: value
+ * {@code i} goes to lane {@code i % 4}, and each lane packs its 32 values back to back, with
+ * the lanes' words interleaved. Unpacking then applies the same shift and mask to four
+ * neighbouring words at a time, with no branch on where a value starts: a 128-bit SIMD
+ * step, which the JIT can vectorize. A block of {@code bits}-wide values takes
+ * {@code 16 * bits} bytes.
+ */
+public final class BlockPacking {
+
+    public static final int BLOCK = 128;
+    /** Scratch words {@link #pack} and {@link #unpack} need: the widest block plus one row of padding. */
+    public static final int WORDS = 4 * 32 + 4;
+
+    private BlockPacking() {}
+
+    /** Bits needed for the largest of the first {@code n} values. */
+    public static int bitsRequired(int[] values, int n) {
+        int or = 0;
+        for (int i = 0; i < n; i++) or |= values[i];
+        return 32 - Integer.numberOfLeadingZeros(or);
+    }
+
+    /**
+     * Packs the block of {@code values} into the first {@code 4 * bits} ints of {@code words},
+     * which are written out big-endian as the block's {@code 16 * bits} bytes.
+     *
+     * @param words scratch of {@link #WORDS} ints, overwritten
+     */
+    public static void pack(int[] values, int bits, int[] words) {
+        // the loop below ORs values in, and may touch one row past the block's 4 * bits words
+        Arrays.fill(words, 0, Math.min(WORDS, 4 * bits + 4), 0);
+        for (int i = 0; i < BLOCK; i++) {
+            int bit = (i >>> 2) * bits;
+            int w = ((bit >>> 5) << 2) + (i & 3);
+            long v = (values[i] & 0xFFFFFFFFL) << (bit & 31);
+            words[w] |= (int) v;
+            words[w + 4] |= (int) (v >>> 32);
+        }
+    }
+
+    /**
+     * Unpacks the block at {@code pos} into {@code out}.
+     *
+     * @param words scratch of {@link #WORDS} ints
+     */
+    public static void unpack(ByteBuffer buf, int pos, int bits, int[] words, int[] out) {
+        for (int k = 0; k < 4 * bits; k++) words[k] = buf.getInt(pos + 4 * k);
+        long mask = (1L << bits) - 1;
+        for (int j = 0, bit = 0; j < BLOCK / 4; j++, bit += bits) {
+            int w = (bit >>> 5) << 2;
+            int shift = bit & 31;
+            // a value not crossing into the next word gets only masked-off bits from it
+            for (int lane = 0; lane < 4; lane++) {
+                long v = ((long) words[w + 4 + lane] << 32) | (words[w + lane] & 0xFFFFFFFFL);
+                out[(j << 2) + lane] = (int) ((v >>> shift) & mask);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.segment;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The datamart segment format, written by the indexing service and memory-mapped by the
+ * search service: a binary, versioned inverted index over one or more books.
+ *
+ * <pre>
+ * header      64 bytes: magic, version, flags, docCount, termCount and the offsets of the sections below
+ * doc table   docCount x 24 bytes: bookId, length, version, metadata position (docs sorted by bookId)
+ * term index  termCount x 8 bytes: document frequency, postings position
+ * term blocks one term data position per 16 terms
+ * term data   per 16 terms, sorted by unsigned byte order: the first as varint length + UTF-8 bytes, the
+ *             others as varint length of the prefix shared with the term before, varint suffix length, suffix
+ * postings    per term: skip table, full blocks of 128 docs, tail
+ * metadata    per doc: varint field count, then varint-prefixed UTF-8 key/value pairs
+ * </pre>
+ *
+ * A posting list's skip table holds, per full block, the block's last doc ordinal and where
+ * the block ends, so a cursor can jump over blocks without decoding them. A block is a
+ * varint minimum doc ordinal gap, a byte bit width, a varint minimum freq and a byte bit
+ * width, then the 128 gaps and the 128 freqs less their minimum, bit-packed by
+ * {@link BlockPacking}, then the varint position gaps of each doc. The tail (docFreq % 128
+ * docs) is a varint gap and freq per doc, then their position gaps. All fixed-width values
+ * are big-endian.
+ * <p>
+ * Version 1, still read everywhere and written on request, has 16-byte term index entries
+ * (term position, document frequency, postings position), every term written in full, and
+ * postings of a varint gap, varint freq and varint position gaps per doc.
+ * <p>
+ * A segment is at most {@link #MAX_SEGMENT_BYTES} long. Readers map it as one buffer, and the
+ * version 2 term index holds postings positions as 32-bit ints; the header's 64-bit section
+ * offsets never exceed the limit either.
+ */
+public final class SegmentFormat {
+
+    public static final int MAGIC = 0x42445347; // "BDSG"
+    public static final short VERSION = 2;
+    public static final short VERSION_1 = 1;
+    public static final short FLAG_POSITIONS = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int DOC_ENTRY_SIZE = 24;
+    public static final int TERM_ENTRY_SIZE = 8;
+    public static final int TERM_ENTRY_SIZE_1 = 16;
+    public static final int TERMS_PER_BLOCK = 16;
+    public static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private SegmentFormat() {}
+
+    /** Reads the LEB128 varint at {@code pos[0]} and moves {@code pos[0]} past it. */
+    public static int readVInt(ByteBuffer buf, int[] pos) {
+        int p = pos[0];
+        int b = buf.get(p++);
+        int v = b & 0x7F;
+        for (int shift = 7; b < 0; shift += 7) {
+            b = buf.get(p++);
+            v |= (b & 0x7F) << shift;
+        }
+        pos[0] = p;
+        return v;
+    }
+
+    /** Reads a varint-prefixed UTF-8 string at {@code pos[0]} and moves {@code pos[0]} past it. */
+    public static String readString(ByteBuffer buf, int[] pos) {
+        int len = readVInt(buf, pos);
+        byte[] b = new byte[len];
+        buf.get(pos[0], b);
+        pos[0] += len;
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
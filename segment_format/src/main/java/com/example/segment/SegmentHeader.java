@@ -0,0 +1,117 @@
+package com.example.segment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The checked header of a mapped segment, in either version, and lookups in the fixed-width
+ * tables it locates: the doc table and the term index. Every position it returns is absolute
+ * in the buffer.
+ */
+public final class SegmentHeader {
+
+    private final ByteBuffer buf;
+    public final short version;
+    public final boolean positions;
+    public final int docCount;
+    public final int termCount;
+    public final int docTable;
+    public final int termIndex;
+    public final int termBlocks;
+    public final int termData;
+    public final int postings;
+    public final int meta;
+    private final boolean v1;
+    private final int termEntrySize;
+
+    private SegmentHeader(ByteBuffer buf, Path path) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < SegmentFormat.HEADER_SIZE || buf.getInt(0) != SegmentFormat.MAGIC) {
+            throw new IOException("Not a segment: " + path);
+        }
+        this.version = buf.getShort(4);
+        if (version != SegmentFormat.VERSION && version != SegmentFormat.VERSION_1) {
+            throw new IOException("Unsupported segment version " + version + ": " + path);
+        }
+        this.v1 = version == SegmentFormat.VERSION_1;
+        this.termEntrySize = v1 ? SegmentFormat.TERM_ENTRY_SIZE_1 : SegmentFormat.TERM_ENTRY_SIZE;
+        this.positions = (buf.getShort(6) & SegmentFormat.FLAG_POSITIONS) != 0;
+        this.docCount = buf.getInt(8);
+        this.termCount = buf.getInt(12);
+        this.docTable = section(buf, 16, path);
+        this.termIndex = section(buf, 24, path);
+        this.termData = section(buf, 32, path);
+        this.postings = section(buf, 40, path);
+        this.meta = section(buf, 48, path);
+        this.termBlocks = v1 ? 0 : section(buf, 56, path);
+    }
+
+    /** Parses the header at the start of {@code buf}; {@code path} only names the file in errors. */
+    public static SegmentHeader read(ByteBuffer buf, Path path) throws IOException {
+        return new SegmentHeader(buf, path);
+    }
+
+    /** Fails for a file too large to be a segment, before it is mapped. */
+    public static void checkSize(long size, Path path) throws IOException {
+        if (size > SegmentFormat.MAX_SEGMENT_BYTES) {
+            throw new IOException("Segment of " + size + " bytes exceeds the " + SegmentFormat.MAX_SEGMENT_BYTES
+                    + " byte limit: " + path);
+        }
+    }
+
+    private static int section(ByteBuffer buf, int at, Path path) throws IOException {
+        long offset = buf.getLong(at);
+        if (offset < SegmentFormat.HEADER_SIZE || offset > buf.capacity()) {
+            throw new IOException("Corrupt segment header (section at " + offset + "): " + path);
+        }
+        return (int) offset;
+    }
+
+    public boolean v1() { return v1; }
+
+    /** Terms per front-coded block of the dictionary; in version 1 every term is a block. */
+    public int termsPerBlock() {
+        return v1 ? 1 : SegmentFormat.TERMS_PER_BLOCK;
+    }
+
+    public int bookId(int ord) {
+        return buf.getInt(docTable + ord * SegmentFormat.DOC_ENTRY_SIZE);
+    }
+
+    public int length(int ord) {
+        return buf.getInt(docTable + ord * SegmentFormat.DOC_ENTRY_SIZE + 4);
+    }
+
+    public long version(int ord) {
+        return buf.getLong(docTable + ord * SegmentFormat.DOC_ENTRY_SIZE + 8);
+    }
+
+    public Map<String, String> metadata(int ord) {
+        int[] pos = {meta + (int) buf.getLong(docTable + ord * SegmentFormat.DOC_ENTRY_SIZE + 16)};
+        int n = SegmentFormat.readVInt(buf, pos);
+        Map<String, String> m = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            String k = SegmentFormat.readString(buf, pos);
+            m.put(k, SegmentFormat.readString(buf, pos));
+        }
+        return m;
+    }
+
+    public int docFreq(int termOrd) {
+        return buf.getInt(termIndex + termOrd * termEntrySize + (v1 ? 4 : 0));
+    }
+
+    /** Where the posting list of the term starts. */
+    public int postingsStart(int termOrd) {
+        int entry = termIndex + termOrd * termEntrySize;
+        return postings + (v1 ? (int) buf.getLong(entry + 8) : buf.getInt(entry + 4));
+    }
+
+    /** Where term block {@code b} starts in the term data. */
+    public int blockStart(int b) {
+        return termData + (v1 ? buf.getInt(termIndex + b * termEntrySize) : buf.getInt(termBlocks + b * 4));
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.segment;
+
+/**
+ * How text becomes the terms stored in segments, used by the indexer's tokenizer and by the
+ * search service's query parser alike, so a query word is folded exactly as the indexed
+ * word was. ASCII and Latin-1 letters are lowercased and stripped of accents (Á -> a,
+ * ñ -> n, ß -> s); every other character separates words. Words are cut at
+ * {@link #MAX_TERM_LENGTH} characters.
+ */
+public final class TermFolding {
+
+    public static final int MAX_TERM_LENGTH = 64;
+
+    private static final char[] FOLD = new char[256];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            FOLD[c] = c;
+            FOLD[c - 'a' + 'A'] = c;
+        }
+        String from = "ÀÁÂÃÄÅÆÇÈÉÊËÌÍÎÏÐÑÒÓÔÕÖØÙÚÛÜÝÞßàáâãäåæçèéêëìíîïðñòóôõöøùúûüýþÿ";
+        String to   = "aaaaaaaceeeeiiiidnoooooouuuuytsaaaaaaaceeeeiiiidnoooooouuuuyty";
+        for (int i = 0; i < from.length(); i++) FOLD[from.charAt(i)] = to.charAt(i);
+    }
+
+    private TermFolding() {}
+
+    /** Folded form of the code point {@code c}, or 0 when it separates words. */
+    public static char fold(int c) {
+        return c >= 0 && c < 256 ? FOLD[c] : 0;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.segment;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes terms in dictionary order from the start of a block. The first term of a block
+ * is stored in full, the others as the length of the prefix they share with the term before
+ * plus the rest. The current term is {@code bytes[0, length)}, reused from one term to the
+ * next.
+ */
+public final class TermReader {
+
+    public byte[] bytes = new byte[64];
+    public int length;
+    public int ord;
+    private final ByteBuffer buf;
+    private final SegmentHeader header;
+    private final int[] pos;
+
+    public TermReader(ByteBuffer buf, SegmentHeader header, int block) {
+        this.buf = buf;
+        this.header = header;
+        this.ord = block * header.termsPerBlock() - 1;
+        this.pos = new int[]{header.blockStart(block)};
+    }
+
+    /** Moves to the next term; false past the last one. */
+    public boolean next() {
+        if (ord + 1 >= header.termCount) return false;
+        ord++;
+        int shared = ord % header.termsPerBlock() == 0 ? 0 : SegmentFormat.readVInt(buf, pos);
+        int suffix = SegmentFormat.readVInt(buf, pos);
+        if (shared + suffix > bytes.length) bytes = Arrays.copyOf(bytes, 2 * (shared + suffix));
+        buf.get(pos[0], bytes, shared, suffix);
+        pos[0] += suffix;
+        length = shared + suffix;
+        return true;
+    }
+}
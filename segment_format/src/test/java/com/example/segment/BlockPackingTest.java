@@ -0,0 +1,62 @@
+package com.example.segment;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockPackingTest {
+
+    private static int[] block(Random rnd, int bits) {
+        int[] values = new int[BlockPacking.BLOCK];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = bits == 0 ? 0 : rnd.nextInt() >>> (32 - bits);
+        }
+        // the widest value sets the width
+        if (bits > 0) values[rnd.nextInt(values.length)] = -1 >>> (32 - bits);
+        return values;
+    }
+
+    /** The packed block as written to a segment, {@code offset} bytes into the buffer. */
+    private static ByteBuffer written(int[] words, int bits, int offset) {
+        ByteBuffer buf = ByteBuffer.allocate(offset + 16 * bits);
+        for (int i = 0; i < offset; i++) buf.put((byte) 0xCA);
+        for (int k = 0; k < 4 * bits; k++) buf.putInt(words[k]);
+        return buf;
+    }
+
+    @Test
+    void roundTripsEveryWidth() {
+        Random rnd = new Random(42);
+        int[] words = new int[BlockPacking.WORDS];
+        int[] out = new int[BlockPacking.BLOCK];
+        for (int bits = 0; bits <= 32; bits++) {
+            int[] values = block(rnd, bits);
+            assertEquals(bits, BlockPacking.bitsRequired(values, values.length));
+
+            BlockPacking.pack(values, bits, words);
+            // the block need not start the buffer
+            ByteBuffer buf = written(words, bits, 4);
+            Arrays.fill(out, -7);
+            BlockPacking.unpack(buf, 4, bits, new int[BlockPacking.WORDS], out);
+            assertArrayEquals(values, out, "bits=" + bits);
+        }
+    }
+
+    @Test
+    void scratchLeftDirtyByAWiderBlockDoesNotLeak() {
+        Random rnd = new Random(7);
+        int[] words = new int[BlockPacking.WORDS];
+        Arrays.fill(words, -1);
+        for (int bits : new int[]{32, 3, 17, 1, 0, 9}) {
+            int[] values = block(rnd, bits);
+            BlockPacking.pack(values, bits, words);
+            int[] out = new int[BlockPacking.BLOCK];
+            BlockPacking.unpack(written(words, bits, 0), 0, bits, new int[BlockPacking.WORDS], out);
+            assertArrayEquals(values, out, "bits=" + bits);
+        }
+    }
+}
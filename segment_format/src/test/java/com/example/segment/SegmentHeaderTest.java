@@ -0,0 +1,54 @@
+package com.example.segment;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentHeaderTest {
+
+    private static final Path PATH = Path.of("test.seg");
+
+    /** A version 2 header of an empty segment whose sections all start right after it. */
+    private static ByteBuffer header() {
+        ByteBuffer buf = ByteBuffer.allocate(SegmentFormat.HEADER_SIZE);
+        buf.putInt(SegmentFormat.MAGIC).putShort(SegmentFormat.VERSION).putShort(SegmentFormat.FLAG_POSITIONS);
+        buf.putInt(0).putInt(0);
+        for (int i = 0; i < 6; i++) buf.putLong(SegmentFormat.HEADER_SIZE);
+        return buf;
+    }
+
+    @Test
+    void readsAWellFormedHeader() throws IOException {
+        SegmentHeader h = SegmentHeader.read(header(), PATH);
+        assertEquals(SegmentFormat.VERSION, h.version);
+        assertTrue(h.positions);
+        assertFalse(h.v1());
+        assertEquals(SegmentFormat.TERMS_PER_BLOCK, h.termsPerBlock());
+    }
+
+    @Test
+    void rejectsSectionsPastTheEndOfTheFile() {
+        ByteBuffer buf = header();
+        buf.putLong(40, 1L << 32); // postings beyond what a 32-bit term index entry could reach
+        IOException e = assertThrows(IOException.class, () -> SegmentHeader.read(buf, PATH));
+        assertTrue(e.getMessage().contains("Corrupt segment header"), e.getMessage());
+    }
+
+    @Test
+    void rejectsOtherFiles() {
+        ByteBuffer buf = header();
+        buf.putShort(4, (short) 3);
+        assertThrows(IOException.class, () -> SegmentHeader.read(buf, PATH));
+        assertThrows(IOException.class, () -> SegmentHeader.read(ByteBuffer.allocate(10), PATH));
+    }
+
+    @Test
+    void capsTheSegmentSize() throws IOException {
+        SegmentHeader.checkSize(SegmentFormat.MAX_SEGMENT_BYTES, PATH);
+        assertThrows(IOException.class, () -> SegmentHeader.checkSize(SegmentFormat.MAX_SEGMENT_BYTES + 1, PATH));
+    }
+}